@@ -4,6 +4,7 @@ plugins {
     java
     application
     id("net.ltgt.errorprone") version "0.8.1"
+    id("me.champeau.gradle.jmh") version "0.5.0"
 }
 
 java {
@@ -38,6 +39,14 @@ val run by tasks.getting(JavaExec::class) {
     standardInput = System.`in`
 }
 
+// YCSB-style workloads, e.g. ./gradlew ycsb --args="A 100000 100000 4"
+val ycsb by tasks.registering(JavaExec::class) {
+    group = "application"
+    main = "ru.mail.polis.LoadGenerator"
+    classpath = sourceSets["main"].runtimeClasspath
+    maxHeapSize = "128m"
+}
+
 tasks {
     test {
         maxHeapSize = "128m"
@@ -60,7 +69,24 @@ tasks.withType<JavaCompile> {
     compilerArgs.add("-Xlint:all")
 }
 
+// Benchmarks
+jmh {
+    jmhVersion = "1.23"
+    // Allocation rate per operation
+    profilers = listOf("gc")
+}
+
 // Error prone options
 tasks.named<JavaCompile>("compileTestJava") {
     options.errorprone.isEnabled.set(false)
+}
+
+tasks.named<JavaCompile>("compileJmhJava") {
+    options.errorprone.isEnabled.set(false)
+}
+
+// Generated benchmark code isn't ours to keep warning-free
+tasks.named<JavaCompile>("jmhCompileGeneratedClasses") {
+    options.errorprone.isEnabled.set(false)
+    options.compilerArgs.removeAll(listOf("-Werror", "-Xlint:all"))
 }
\ No newline at end of file
@@ -0,0 +1,98 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.stasmilke.CompactionStrategy;
+import ru.mail.polis.stasmilke.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/**
+ * Contains utility methods for benchmarks the way {@code TestBase} does for tests.
+ */
+abstract class BenchmarkBase {
+    /**
+     * Size of the data the read benchmarks run against.
+     */
+    static final long DATA_BYTES = 32 * 1024 * 1024;
+    /**
+     * Rough memtable cost of a record besides its key and value.
+     */
+    private static final int NODE_BYTES = 40;
+
+    @NotNull
+    static ByteBuffer randomBuffer(final int length) {
+        final byte[] result = new byte[length];
+        ThreadLocalRandom.current().nextBytes(result);
+        return ByteBuffer.wrap(result);
+    }
+
+    /**
+     * Returns how many records of the size make up {@link #DATA_BYTES}.
+     */
+    static int records(
+            final int keyLength,
+            final int valueLength) {
+        return (int) (DATA_BYTES / (keyLength + valueLength));
+    }
+
+    /**
+     * Returns the options which leave about {@code tables} tables after {@link #fill} and never compact them.
+     */
+    @NotNull
+    static Config.Builder config(
+            final int keyLength,
+            final int valueLength,
+            final int tables) {
+        final long memTableBytes = (long) records(keyLength, valueLength) * (keyLength + valueLength + NODE_BYTES);
+        return Config.builder(memTableBytes / tables + 1)
+                .compactionStrategy(CompactionStrategy.full(Integer.MAX_VALUE));
+    }
+
+    /**
+     * Upserts random records into the DAO.
+     *
+     * @return the keys one after another, see {@link #key}
+     */
+    @NotNull
+    static byte[] fill(
+            @NotNull final DAO dao,
+            final int records,
+            final int keyLength,
+            final int valueLength) throws IOException {
+        final byte[] keys = new byte[records * keyLength];
+        ThreadLocalRandom.current().nextBytes(keys);
+        for (int i = 0; i < records; i++) {
+            dao.upsert(key(keys, i, keyLength), randomBuffer(valueLength));
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the key of the record upserted by {@link #fill}.
+     */
+    @NotNull
+    static ByteBuffer key(
+            @NotNull final byte[] keys,
+            final int index,
+            final int keyLength) {
+        return ByteBuffer.wrap(keys, index * keyLength, keyLength).slice();
+    }
+
+    @NotNull
+    static File createDirectory(@NotNull final String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    static void delete(@NotNull final File directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory.toPath())) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
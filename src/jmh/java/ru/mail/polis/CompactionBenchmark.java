@@ -0,0 +1,64 @@
+package ru.mail.polis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.mail.polis.stasmilke.LsmDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of the major compaction of {@link LsmDAO} merging the tables into one.
+ * Every invocation gets freshly written tables, so the time is measured one shot at a time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CompactionBenchmark extends BenchmarkBase {
+    @Param({"16"})
+    public int keyLength;
+
+    @Param({"16", "1024"})
+    public int valueLength;
+
+    @Param({"4", "32"})
+    public int tables;
+
+    private File data;
+    private DAO dao;
+
+    @Setup(Level.Invocation)
+    public void open() throws IOException {
+        data = createDirectory("compaction-benchmark");
+        try (DAO filled = new LsmDAO(data, config(keyLength, valueLength, tables).build())) {
+            fill(filled, records(keyLength, valueLength), keyLength, valueLength);
+        }
+        dao = new LsmDAO(data, config(keyLength, valueLength, tables).build());
+    }
+
+    @TearDown(Level.Invocation)
+    public void close() throws IOException {
+        dao.close();
+        delete(data);
+    }
+
+    @Benchmark
+    public void compact() throws IOException {
+        dao.compact();
+    }
+}
@@ -0,0 +1,90 @@
+package ru.mail.polis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.mail.polis.stasmilke.LsmDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point lookups of {@link LsmDAO} for present and absent keys against the number of tables.
+ * Other thread counts are set with {@code -t}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class GetBenchmark extends BenchmarkBase {
+    @Param({"16"})
+    public int keyLength;
+
+    @Param({"16", "1024"})
+    public int valueLength;
+
+    @Param({"1", "16"})
+    public int tables;
+
+    private File data;
+    private DAO dao;
+    private int records;
+    private byte[] keys;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        data = createDirectory("get-benchmark");
+        records = records(keyLength, valueLength);
+        try (DAO filled = new LsmDAO(data, config(keyLength, valueLength, tables).build())) {
+            keys = fill(filled, records, keyLength, valueLength);
+        }
+        // Everything is on disk now
+        dao = new LsmDAO(data, config(keyLength, valueLength, tables).build());
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        dao.close();
+        delete(data);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public ByteBuffer hit() throws IOException {
+        return dao.get(key(keys, ThreadLocalRandom.current().nextInt(records), keyLength));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ByteBuffer hit4() throws IOException {
+        return hit();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean miss() throws IOException {
+        try {
+            dao.get(randomBuffer(keyLength));
+            return true;
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+}
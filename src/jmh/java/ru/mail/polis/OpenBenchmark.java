@@ -0,0 +1,60 @@
+package ru.mail.polis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.mail.polis.stasmilke.LsmDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to open {@link LsmDAO} over existing tables, which reads their indexes and filters, and to close it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class OpenBenchmark extends BenchmarkBase {
+    @Param({"16"})
+    public int keyLength;
+
+    @Param({"16", "1024"})
+    public int valueLength;
+
+    @Param({"1", "32"})
+    public int tables;
+
+    private File data;
+
+    @Setup(Level.Trial)
+    public void fill() throws IOException {
+        data = createDirectory("open-benchmark");
+        try (DAO filled = new LsmDAO(data, config(keyLength, valueLength, tables).build())) {
+            fill(filled, records(keyLength, valueLength), keyLength, valueLength);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        delete(data);
+    }
+
+    @Benchmark
+    public void open() throws IOException {
+        new LsmDAO(data, config(keyLength, valueLength, tables).build()).close();
+    }
+}
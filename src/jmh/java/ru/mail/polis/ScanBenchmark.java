@@ -0,0 +1,76 @@
+package ru.mail.polis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.mail.polis.stasmilke.LsmDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Range scans of {@link LsmDAO} of different lengths from random keys, merging all the tables.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ScanBenchmark extends BenchmarkBase {
+    @Param({"16"})
+    public int keyLength;
+
+    @Param({"16", "1024"})
+    public int valueLength;
+
+    @Param({"1", "16"})
+    public int tables;
+
+    @Param({"10", "100", "1000"})
+    public int length;
+
+    private File data;
+    private DAO dao;
+    private int records;
+    private byte[] keys;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        data = createDirectory("scan-benchmark");
+        records = records(keyLength, valueLength);
+        try (DAO filled = new LsmDAO(data, config(keyLength, valueLength, tables).build())) {
+            keys = fill(filled, records, keyLength, valueLength);
+        }
+        dao = new LsmDAO(data, config(keyLength, valueLength, tables).build());
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        dao.close();
+        delete(data);
+    }
+
+    @Benchmark
+    public void scan(final Blackhole blackhole) throws IOException {
+        final int from = ThreadLocalRandom.current().nextInt(records);
+        final Iterator<Record> range = dao.iterator(key(keys, from, keyLength));
+        for (int i = 0; i < length && range.hasNext(); i++) {
+            blackhole.consume(range.next());
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package ru.mail.polis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.mail.polis.stasmilke.Config;
+import ru.mail.polis.stasmilke.LsmDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upsert throughput of {@link LsmDAO} including the flushes and compactions it causes.
+ * Other thread counts are set with {@code -t}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class UpsertBenchmark extends BenchmarkBase {
+    @Param({"16", "64"})
+    public int keyLength;
+
+    @Param({"16", "1024"})
+    public int valueLength;
+
+    private File data;
+    private DAO dao;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        data = createDirectory("upsert-benchmark");
+        dao = new LsmDAO(data, Config.builder(4 * 1024 * 1024).build());
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        dao.close();
+        delete(data);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void upsert1() throws IOException {
+        dao.upsert(randomBuffer(keyLength), randomBuffer(valueLength));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void upsert4() throws IOException {
+        dao.upsert(randomBuffer(keyLength), randomBuffer(valueLength));
+    }
+}
@@ -0,0 +1,85 @@
+package ru.mail.polis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.mail.polis.stasmilke.Config;
+import ru.mail.polis.stasmilke.LsmDAO;
+import ru.mail.polis.stasmilke.SyncPolicy;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable upsert throughput of {@link LsmDAO} against the number of client threads.
+ * With {@link SyncPolicy#GROUP} it should grow with the threads, with {@link SyncPolicy#ALWAYS}
+ * it is capped by the fsync latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WriteAheadLogBenchmark extends BenchmarkBase {
+    private static final int KEY_LENGTH = 16;
+    private static final int VALUE_LENGTH = 128;
+
+    @Param({"GROUP", "ALWAYS"})
+    public SyncPolicy syncPolicy;
+
+    private File data;
+    private DAO dao;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        data = createDirectory("wal-benchmark");
+        dao = new LsmDAO(data, Config.builder(64 * 1024 * 1024).syncPolicy(syncPolicy).build());
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        dao.close();
+        delete(data);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void upsert1() throws IOException {
+        upsert();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void upsert4() throws IOException {
+        upsert();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void upsert16() throws IOException {
+        upsert();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void upsert64() throws IOException {
+        upsert();
+    }
+
+    private void upsert() throws IOException {
+        dao.upsert(randomBuffer(KEY_LENGTH), randomBuffer(VALUE_LENGTH));
+    }
+}
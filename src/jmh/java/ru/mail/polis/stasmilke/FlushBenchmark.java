@@ -0,0 +1,83 @@
+package ru.mail.polis.stasmilke;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to write a memtable worth of cells to a {@link SSTable}, the way a flush does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FlushBenchmark {
+    private static final int KEY_LENGTH = 16;
+    private static final long MEMTABLE_BYTES = 4 * 1024 * 1024;
+
+    @Param({"16", "128", "1024"})
+    public int valueLength;
+
+    private File data;
+    private File table;
+    private Config config;
+    private List<Cell> cells;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        data = Files.createTempDirectory("flush-benchmark").toFile();
+        table = new File(data, "0.dat");
+        config = Config.builder(MEMTABLE_BYTES).build();
+        final NavigableMap<ByteBuffer, Value> sorted = new TreeMap<>();
+        long timestamp = 1L;
+        for (long size = 0L; size < MEMTABLE_BYTES; size += KEY_LENGTH + valueLength) {
+            sorted.put(randomBuffer(KEY_LENGTH), new Value(randomBuffer(valueLength), timestamp++));
+        }
+        cells = new ArrayList<>(sorted.size());
+        sorted.forEach((key, value) -> cells.add(new Cell(key, value)));
+    }
+
+    @TearDown(Level.Invocation)
+    public void delete() throws IOException {
+        Files.deleteIfExists(table.toPath());
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanUp() throws IOException {
+        Files.deleteIfExists(data.toPath());
+    }
+
+    @Benchmark
+    public void serialize() throws IOException {
+        SSTable.serialize(table, cells.iterator(), config);
+    }
+
+    private static ByteBuffer randomBuffer(final int length) {
+        final byte[] result = new byte[length];
+        ThreadLocalRandom.current().nextBytes(result);
+        return ByteBuffer.wrap(result);
+    }
+}
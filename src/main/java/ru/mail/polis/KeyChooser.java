@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 (c) OK
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * Picks the indexes of the existing keys to access, the way the YCSB key distributions do.
+ */
+enum KeyChooser {
+    /**
+     * Every key is equally likely.
+     */
+    UNIFORM {
+        @Override
+        long next(
+                @NotNull final Zipfian zipfian,
+                @NotNull final LongSupplier inserted) {
+            return ThreadLocalRandom.current().nextLong(inserted.getAsLong());
+        }
+    },
+    /**
+     * A few keys scattered over the key space take most of the accesses.
+     */
+    ZIPFIAN {
+        @Override
+        long next(
+                @NotNull final Zipfian zipfian,
+                @NotNull final LongSupplier inserted) {
+            while (true) {
+                // Popular keys mustn't be neighbours, otherwise they would share the blocks
+                final long index = Long.remainderUnsigned(fnvHash(zipfian.next()), zipfian.items);
+                // Keys expected to be inserted during the run may not be there yet
+                if (index < inserted.getAsLong()) {
+                    return index;
+                }
+            }
+        }
+    },
+    /**
+     * The most recently inserted keys take most of the accesses.
+     */
+    LATEST {
+        @Override
+        long next(
+                @NotNull final Zipfian zipfian,
+                @NotNull final LongSupplier inserted) {
+            final long last = inserted.getAsLong() - 1;
+            return Math.max(0L, last - zipfian.next());
+        }
+    };
+
+    /**
+     * Returns the index of a key from zero to the number of inserted keys exclusive.
+     *
+     * @param zipfian popularity of the keys, used by the skewed distributions
+     * @param inserted number of the keys inserted so far
+     */
+    abstract long next(
+            @NotNull Zipfian zipfian,
+            @NotNull LongSupplier inserted);
+
+    /**
+     * Scrambles the index by FNV-1a of its bytes as YCSB does.
+     */
+    static long fnvHash(final long value) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < Long.BYTES; i++) {
+            hash ^= (value >>> (i * Byte.SIZE)) & 0xFF;
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Zipfian distribution over {@code [0, items)} where zero is the most popular item,
+     * generated in constant time by the method of Gray et al., "Quickly Generating Billion-Record
+     * Synthetic Databases".
+     */
+    static final class Zipfian {
+        private static final double THETA = 0.99;
+
+        private final long items;
+        private final double alpha;
+        private final double zetaN;
+        private final double eta;
+
+        Zipfian(final long items) {
+            if (items <= 0L) {
+                throw new IllegalArgumentException("Nothing to choose from: " + items);
+            }
+            this.items = items;
+            this.alpha = 1.0 / (1.0 - THETA);
+            this.zetaN = zeta(items);
+            this.eta = (1.0 - Math.pow(2.0 / items, 1.0 - THETA)) / (1.0 - zeta(2) / zetaN);
+        }
+
+        long next() {
+            final double u = ThreadLocalRandom.current().nextDouble();
+            final double uz = u * zetaN;
+            if (uz < 1.0) {
+                return 0L;
+            }
+            if (uz < 1.0 + Math.pow(0.5, THETA)) {
+                return Math.min(1L, items - 1);
+            }
+            return Math.min((long) (items * Math.pow(eta * u - eta + 1.0, alpha)), items - 1);
+        }
+
+        private static double zeta(final long items) {
+            double sum = 0.0;
+            for (long i = 1; i <= items; i++) {
+                sum += 1.0 / Math.pow(i, THETA);
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2020 (c) OK
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.mail.polis.Workload.Operation;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * YCSB-style load generator for {@link DAO}: loads the records and then runs one of the core {@link Workload}s,
+ * reporting the throughput and the latency percentiles of every phase.
+ *
+ * <p>Usage: {@code LoadGenerator <A-F> [records] [operations] [threads] [UNIFORM|ZIPFIAN|LATEST]}.
+ */
+public final class LoadGenerator {
+    private static final Logger log = LoggerFactory.getLogger(LoadGenerator.class);
+    private static final int VALUE_LENGTH = 1000;
+    private static final int MAX_SCAN_LENGTH = 100;
+    private static final double[] PERCENTILES = {50.0, 95.0, 99.0, 99.9};
+
+    @NotNull
+    private final DAO dao;
+    private final int threads;
+    /**
+     * Keys from zero to this one exclusive have been inserted.
+     */
+    private final AtomicLong inserted = new AtomicLong();
+    private final AtomicLong nextInsert = new AtomicLong();
+
+    LoadGenerator(
+            @NotNull final DAO dao,
+            final int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Threads must be positive: " + threads);
+        }
+        this.dao = dao;
+        this.threads = threads;
+    }
+
+    /**
+     * Inserts the records to run the workload against.
+     */
+    @NotNull
+    Map<Operation, LatencyHistogram> load(final long records) throws IOException {
+        return phase("load", records, random -> Operation.INSERT, this::execute);
+    }
+
+    /**
+     * Runs the operations of the workload against the loaded records.
+     */
+    @NotNull
+    Map<Operation, LatencyHistogram> run(
+            @NotNull final Workload workload,
+            @NotNull final KeyChooser keyChooser,
+            final long operations) throws IOException {
+        if (inserted.get() == 0L) {
+            throw new IllegalStateException("Nothing loaded");
+        }
+        // The skewed distributions cover the keys to be inserted meanwhile as well
+        final long expected = inserted.get() + (long) (operations * workload.share(Operation.INSERT)) + 1;
+        final KeyChooser.Zipfian zipfian = new KeyChooser.Zipfian(expected);
+        return phase(
+                "run " + workload + " " + keyChooser,
+                operations,
+                workload::operation,
+                operation -> execute(operation, keyChooser.next(zipfian, inserted::get)));
+    }
+
+    private void execute(@NotNull final Operation operation) throws IOException {
+        execute(operation, -1L);
+    }
+
+    private void execute(
+            @NotNull final Operation operation,
+            final long index) throws IOException {
+        switch (operation) {
+            case READ:
+                read(index);
+                break;
+            case UPDATE:
+                dao.upsert(key(index), value());
+                break;
+            case INSERT:
+                final long next = nextInsert.getAndIncrement();
+                dao.upsert(key(next), value());
+                // Concurrent inserts may complete out of order, so a key just below may still be missing
+                inserted.accumulateAndGet(next + 1, Math::max);
+                break;
+            case SCAN:
+                final Iterator<Record> records = dao.range(key(index), null);
+                final int length = ThreadLocalRandom.current().nextInt(MAX_SCAN_LENGTH) + 1;
+                for (int i = 0; i < length && records.hasNext(); i++) {
+                    records.next();
+                }
+                break;
+            case READ_MODIFY_WRITE:
+                read(index);
+                dao.upsert(key(index), value());
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported operation: " + operation);
+        }
+    }
+
+    private void read(final long index) throws IOException {
+        try {
+            dao.get(key(index));
+        } catch (NoSuchElementException e) {
+            // Not inserted yet
+        }
+    }
+
+    /**
+     * Runs the operations split between the threads and returns the merged latencies in nanoseconds.
+     */
+    @NotNull
+    private Map<Operation, LatencyHistogram> phase(
+            @NotNull final String name,
+            final long operations,
+            @NotNull final Chooser chooser,
+            @NotNull final Action action) throws IOException {
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final List<Future<Map<Operation, LatencyHistogram>>> futures = new ArrayList<>(threads);
+        final long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final long share = operations / threads + (t < operations % threads ? 1 : 0);
+            futures.add(pool.submit(() -> {
+                final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+                for (long i = 0; i < share; i++) {
+                    final Operation operation = chooser.choose(ThreadLocalRandom.current().nextDouble());
+                    final long operationStart = System.nanoTime();
+                    action.execute(operation);
+                    latencies.computeIfAbsent(operation, o -> new LatencyHistogram())
+                            .record(System.nanoTime() - operationStart);
+                }
+                return latencies;
+            }));
+        }
+
+        final Map<Operation, LatencyHistogram> result = new EnumMap<>(Operation.class);
+        try {
+            for (final Future<Map<Operation, LatencyHistogram>> future : futures) {
+                future.get().forEach((operation, latencies) ->
+                        result.computeIfAbsent(operation, o -> new LatencyHistogram()).add(latencies));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running " + name, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to run " + name, e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        report(name, operations, System.nanoTime() - start, result);
+        return result;
+    }
+
+    private static void report(
+            @NotNull final String name,
+            final long operations,
+            final long nanos,
+            @NotNull final Map<Operation, LatencyHistogram> latencies) {
+        final double seconds = nanos / 1e9;
+        log.info(String.format("[%s] %d operations in %.1f s, %.0f ops/s", name, operations, seconds,
+                operations / seconds));
+        latencies.forEach((operation, histogram) -> {
+            final StringBuilder line = new StringBuilder(String.format(
+                    "[%s] %s: count %d, mean %.1f us",
+                    name, operation, histogram.count(), histogram.mean() / 1000.0));
+            for (final double percentile : PERCENTILES) {
+                final String label = BigDecimal.valueOf(percentile).stripTrailingZeros().toPlainString();
+                line.append(String.format(", p%s %d us", label, toMicros(histogram.percentile(percentile))));
+            }
+            line.append(String.format(", max %d us", toMicros(histogram.max())));
+            log.info(line.toString());
+        });
+    }
+
+    private static long toMicros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    /**
+     * Returns the key of the index, which are scattered over the key space as YCSB does.
+     */
+    @NotNull
+    private static ByteBuffer key(final long index) {
+        final String key = "user" + Long.toUnsignedString(KeyChooser.fnvHash(index));
+        return ByteBuffer.wrap(key.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @NotNull
+    private static ByteBuffer value() {
+        final byte[] result = new byte[VALUE_LENGTH];
+        ThreadLocalRandom.current().nextBytes(result);
+        return ByteBuffer.wrap(result);
+    }
+
+    @FunctionalInterface
+    private interface Chooser {
+        @NotNull
+        Operation choose(double random);
+    }
+
+    @FunctionalInterface
+    private interface Action {
+        void execute(@NotNull Operation operation) throws IOException;
+    }
+
+    /**
+     * Loads and runs the workload against a temporary DB.
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length == 0) {
+            log.error("Usage: LoadGenerator <A-F> [records] [operations] [threads] [UNIFORM|ZIPFIAN|LATEST]");
+            return;
+        }
+        final Workload workload = Workload.valueOf(args[0]);
+        final long records = args.length > 1 ? Long.parseLong(args[1]) : 100_000L;
+        final long operations = args.length > 2 ? Long.parseLong(args[2]) : records;
+        final int threads = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        final KeyChooser keyChooser = args.length > 4 ? KeyChooser.valueOf(args[4]) : workload.keyChooser();
+
+        final File data = java.nio.file.Files.createTempDirectory("load").toFile();
+        log.info("Storing data in {}", data.getAbsolutePath());
+        try {
+            try (DAO dao = DAOFactory.create(data)) {
+                final LoadGenerator generator = new LoadGenerator(dao, threads);
+                generator.load(records);
+                generator.run(workload, keyChooser, operations);
+            }
+        } finally {
+            Files.recursiveDelete(data);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2020 (c) OK
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * YCSB core workloads as the shares of the operations and the default key distribution.
+ */
+enum Workload {
+    /**
+     * Update heavy: session store recording recent actions.
+     */
+    A(0.5, 0.5, 0.0, 0.0, 0.0, KeyChooser.ZIPFIAN),
+    /**
+     * Read mostly: photo tagging.
+     */
+    B(0.95, 0.05, 0.0, 0.0, 0.0, KeyChooser.ZIPFIAN),
+    /**
+     * Read only: user profile cache.
+     */
+    C(1.0, 0.0, 0.0, 0.0, 0.0, KeyChooser.ZIPFIAN),
+    /**
+     * Read latest: user status updates.
+     */
+    D(0.95, 0.0, 0.05, 0.0, 0.0, KeyChooser.LATEST),
+    /**
+     * Short ranges: threaded conversations.
+     */
+    E(0.0, 0.0, 0.05, 0.95, 0.0, KeyChooser.ZIPFIAN),
+    /**
+     * Read-modify-write: user database.
+     */
+    F(0.5, 0.0, 0.0, 0.0, 0.5, KeyChooser.ZIPFIAN);
+
+    /**
+     * Kinds of operations, with {@link #INSERT} being the only one of the load phase.
+     */
+    enum Operation {
+        READ,
+        UPDATE,
+        INSERT,
+        SCAN,
+        READ_MODIFY_WRITE
+    }
+
+    private final double[] shares;
+    @NotNull
+    private final KeyChooser keyChooser;
+
+    Workload(
+            final double read,
+            final double update,
+            final double insert,
+            final double scan,
+            final double readModifyWrite,
+            @NotNull final KeyChooser keyChooser) {
+        this.shares = new double[]{read, update, insert, scan, readModifyWrite};
+        this.keyChooser = keyChooser;
+    }
+
+    @NotNull
+    KeyChooser keyChooser() {
+        return keyChooser;
+    }
+
+    double share(@NotNull final Operation operation) {
+        return shares[operation.ordinal()];
+    }
+
+    /**
+     * Picks the operation by a uniform random number from zero to one.
+     */
+    @NotNull
+    Operation operation(final double random) {
+        Operation result = Operation.READ;
+        double bound = 0.0;
+        for (final Operation operation : Operation.values()) {
+            final double share = shares[operation.ordinal()];
+            if (share > 0.0) {
+                result = operation;
+                bound += share;
+                if (random < bound) {
+                    break;
+                }
+            }
+        }
+        // The last operation also takes what the shares miss being rounded
+        return result;
+    }
+}
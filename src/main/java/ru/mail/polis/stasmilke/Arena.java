@@ -0,0 +1,79 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Bump allocator over off-heap slabs, which are freed all at once when the arena becomes unreachable.
+ * Slabs start small and double up to {@link #MAX_SLAB}, so that small tables don't waste memory.
+ * The slabs are direct buffers, so they are limited by {@code -XX:MaxDirectMemorySize}, which is the heap size
+ * unless set.
+ *
+ * <p>An address is {@code [slab index][offset]} packed into a long, zero is never handed out.
+ * Allocation must be serialized by the owner, while the slabs may be read concurrently.
+ */
+final class Arena {
+    static final long NIL = 0L;
+
+    private static final int MIN_SLAB = 4 * 1024;
+    private static final int MAX_SLAB = 1024 * 1024;
+    private static final int ALIGNMENT = Long.BYTES;
+
+    /**
+     * Published after a slab is added, so that readers following an address see its slab.
+     */
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+    private ByteBuffer current;
+    private long sizeInBytes;
+    private final int firstSlab;
+
+    /**
+     * Creates an arena whose first slab fits exactly the given number of bytes.
+     */
+    Arena(final int firstSlab) {
+        this.firstSlab = (firstSlab + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    /**
+     * Returns the address of {@code size} zeroed bytes aligned to {@link Long#BYTES}.
+     */
+    long allocate(final int size) {
+        final int aligned = (size + ALIGNMENT - 1) & -ALIGNMENT;
+        if (current == null || current.remaining() < aligned) {
+            final int next = current == null
+                    ? firstSlab
+                    : Math.min(Math.max(current.capacity() * 2, MIN_SLAB), MAX_SLAB);
+            // The first slab keeps zero free for NIL, and aligning the slab may cut its start
+            final int capacity = Math.max(next, aligned) + (current == null ? ALIGNMENT : 0) + ALIGNMENT;
+            current = ByteBuffer.allocateDirect(capacity).alignedSlice(ALIGNMENT);
+            sizeInBytes += capacity;
+            final ByteBuffer[] grown = Arrays.copyOf(slabs, slabs.length + 1);
+            grown[slabs.length] = current;
+            slabs = grown;
+            if (slabs.length == 1) {
+                current.position(ALIGNMENT);
+            }
+        }
+        final int offset = current.position();
+        current.position(offset + aligned);
+        return (long) (slabs.length - 1) << Integer.SIZE | offset;
+    }
+
+    @NotNull
+    ByteBuffer slab(final long address) {
+        return slabs[(int) (address >>> Integer.SIZE)];
+    }
+
+    static int offset(final long address) {
+        return (int) address;
+    }
+
+    /**
+     * Returns the size of all the slabs including their free space, must be called by the owner.
+     */
+    long sizeInBytes() {
+        return sizeInBytes;
+    }
+}
@@ -0,0 +1,199 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Data block of {@link SSTable}: sorted cells read with one access and scanned in memory.
+ *
+ * <p>Blocks, written by {@link BlockBuilder}, store the keys as {@code [shared][unshared][suffix]}
+ * with varint lengths, where {@code shared} bytes are taken from the previous key.
+ * Every {@link BlockBuilder#RESTART_INTERVAL}-th key is stored in full, and the block ends with
+ * {@code [restart offsets][restarts]} so that a lookup can binary search the restarts.
+ *
+ * <p>The key is followed by {@code [flags][timestamp][value length][value]}, where the timestamp
+ * is a zigzag varint of the delta against the base timestamp of the table and the value length is a varint.
+ * Tombstones have no value part.
+ */
+final class Block {
+    /**
+     * Flag of the cells which are removed.
+     */
+    static final byte TOMBSTONE = 1;
+
+    @NotNull
+    private final ByteBuffer data;
+    private final long baseTimestamp;
+    /**
+     * Where the entries end and the restarts begin.
+     */
+    private final int entriesEnd;
+    private final int restarts;
+
+    Block(
+            @NotNull final ByteBuffer data,
+            final long baseTimestamp) {
+        this.data = data;
+        this.baseTimestamp = baseTimestamp;
+        this.restarts = data.getInt(data.limit() - Integer.BYTES);
+        this.entriesEnd = data.limit() - Integer.BYTES * (restarts + 1);
+    }
+
+    /**
+     * Returns the version of the key in the block or {@code null}.
+     */
+    @Nullable
+    Value get(@NotNull final ByteBuffer key) {
+        final Reader reader = new Reader(restartFor(key));
+        while (reader.next()) {
+            final int comp = reader.compare(key);
+            if (comp == 0) {
+                return reader.value();
+            }
+            if (comp < 0) {
+                // Cells are sorted, so it isn't here
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Iterates over the cells of the block starting from the first one not less than the key.
+     */
+    @NotNull
+    Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
+        final Reader reader = new Reader(restartFor(from));
+        boolean found = reader.next();
+        while (found && reader.compare(from) > 0) {
+            found = reader.next();
+        }
+        final boolean first = found;
+        return new Iterator<>() {
+            private boolean hasNext = first;
+
+            @Override
+            public boolean hasNext() {
+                return hasNext;
+            }
+
+            @Override
+            public Cell next() {
+                if (!hasNext) {
+                    throw new NoSuchElementException();
+                }
+                final Cell cell = new Cell(reader.key(), reader.value());
+                hasNext = reader.next();
+                return cell;
+            }
+        };
+    }
+
+    /**
+     * Returns the key of the last cell.
+     */
+    @NotNull
+    ByteBuffer lastKey() {
+        final Reader reader = new Reader(restart(restarts - 1));
+        ByteBuffer result = null;
+        while (reader.next()) {
+            result = reader.key();
+        }
+        assert result != null;
+        return result;
+    }
+
+    private int restart(final int index) {
+        return data.getInt(entriesEnd + Integer.BYTES * index);
+    }
+
+    /**
+     * Returns the last restart whose key isn't greater than the given one.
+     */
+    private int restartFor(@NotNull final ByteBuffer key) {
+        int left = 0;
+        int right = restarts - 1;
+        while (left < right) {
+            final int mid = (left + right + 1) / 2;
+            final Reader reader = new Reader(restart(mid));
+            reader.next();
+            if (reader.compare(key) < 0) {
+                right = mid - 1;
+            } else {
+                left = mid;
+            }
+        }
+        return restart(left);
+    }
+
+    /**
+     * Decodes the entries one by one, the keys are restored into a reusable buffer.
+     */
+    private final class Reader {
+        private int next;
+        private int keyLength;
+        private long timestamp;
+        private boolean tombstone;
+        private int valueOffset;
+        private int valueLength;
+        private ByteBuffer restored = ByteBuffer.allocate(0);
+
+        Reader(final int offset) {
+            this.next = offset;
+        }
+
+        boolean next() {
+            if (next >= entriesEnd) {
+                return false;
+            }
+            int offset = next;
+            final int shared = Bytes.getVarInt(data, offset);
+            offset += Bytes.varIntSize(shared);
+            final int unshared = Bytes.getVarInt(data, offset);
+            offset += Bytes.varIntSize(unshared);
+            keyLength = shared + unshared;
+            if (restored.capacity() < keyLength) {
+                final ByteBuffer grown = ByteBuffer.allocate(Math.max(keyLength, restored.capacity() * 2));
+                grown.put(restored.duplicate().position(0).limit(shared));
+                restored = grown;
+            }
+            restored.clear().position(shared);
+            restored.put(Bytes.slice(data, offset, unshared));
+            offset += unshared;
+            tombstone = (data.get(offset++) & TOMBSTONE) != 0;
+            final long delta = Bytes.getVarLong(data, offset);
+            offset += Bytes.varLongSize(delta);
+            timestamp = baseTimestamp + Bytes.unZigZag(delta);
+            if (!tombstone) {
+                valueLength = Bytes.getVarInt(data, offset);
+                offset += Bytes.varIntSize(valueLength);
+            }
+            valueOffset = offset;
+            next = tombstone ? offset : offset + valueLength;
+            return true;
+        }
+
+        int compare(@NotNull final ByteBuffer key) {
+            return Bytes.compare(key, restored, 0, keyLength);
+        }
+
+        @NotNull
+        ByteBuffer key() {
+            final ByteBuffer result = ByteBuffer.allocate(keyLength);
+            result.put(Bytes.slice(restored, 0, keyLength));
+            return result.flip();
+        }
+
+        @NotNull
+        Value value() {
+            if (tombstone) {
+                return new Value(timestamp);
+            }
+            return new Value(Bytes.slice(data, valueOffset, valueLength), timestamp);
+        }
+    }
+}
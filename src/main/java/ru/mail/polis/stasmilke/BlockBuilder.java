@@ -0,0 +1,112 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Encodes sorted cells into a compact {@link Block}.
+ */
+final class BlockBuilder {
+    /**
+     * How many keys share a prefix chain, a lookup decodes at most this many keys.
+     */
+    static final int RESTART_INTERVAL = 16;
+
+    private final int blockSize;
+    private final long baseTimestamp;
+    private ByteBuffer buffer;
+    private boolean finished;
+    private int[] restarts = new int[8];
+    private int restartCount;
+    private int entries;
+    private ByteBuffer lastKey = ByteBuffer.allocate(0);
+
+    /**
+     * Creates a builder for the blocks of a table whose timestamps are stored against the base one.
+     */
+    BlockBuilder(
+            final int blockSize,
+            final long baseTimestamp) {
+        this.blockSize = blockSize;
+        this.baseTimestamp = baseTimestamp;
+        this.buffer = ByteBuffer.allocate(blockSize);
+    }
+
+    boolean isEmpty() {
+        return entries == 0;
+    }
+
+    /**
+     * Returns the size of the block if it were finished now.
+     */
+    int size() {
+        return buffer.position() + Integer.BYTES * (restartCount + 1);
+    }
+
+    void add(@NotNull final Cell cell) {
+        if (finished) {
+            // A huge cell may have grown the buffer, the next block doesn't need that much
+            buffer = buffer.capacity() > blockSize * 2 ? ByteBuffer.allocate(blockSize) : buffer.clear();
+            finished = false;
+        }
+        final ByteBuffer key = cell.getKey();
+        final Value value = cell.getValue();
+        int shared = 0;
+        if (entries % RESTART_INTERVAL == 0) {
+            if (restartCount == restarts.length) {
+                restarts = Arrays.copyOf(restarts, restartCount * 2);
+            }
+            restarts[restartCount++] = buffer.position();
+        } else {
+            final int common = Math.min(lastKey.remaining(), key.remaining());
+            while (shared < common && lastKey.get(lastKey.position() + shared) == key.get(key.position() + shared)) {
+                shared++;
+            }
+        }
+        final int unshared = key.remaining() - shared;
+        final int valueSize = value.isTombstone() ? 0 : value.getData().remaining();
+        final long delta = Bytes.zigZag(value.getTimestamp() - baseTimestamp);
+        ensureRemaining(Bytes.varIntSize(shared) + Bytes.varIntSize(unshared) + unshared
+                + 1 + Bytes.varLongSize(delta) + (value.isTombstone() ? 0 : Bytes.varIntSize(valueSize) + valueSize));
+
+        Bytes.putVarInt(buffer, shared);
+        Bytes.putVarInt(buffer, unshared);
+        buffer.put(Bytes.slice(key, key.position() + shared, unshared));
+        buffer.put(value.isTombstone() ? Block.TOMBSTONE : 0);
+        Bytes.putVarLong(buffer, delta);
+        if (!value.isTombstone()) {
+            Bytes.putVarInt(buffer, valueSize);
+            buffer.put(value.getData());
+        }
+        lastKey = key;
+        entries++;
+    }
+
+    /**
+     * Returns the encoded block, which stays valid until the next {@link #add}, and starts a new one.
+     */
+    @NotNull
+    ByteBuffer finish() {
+        ensureRemaining(Integer.BYTES * (restartCount + 1));
+        for (int i = 0; i < restartCount; i++) {
+            buffer.putInt(restarts[i]);
+        }
+        buffer.putInt(restartCount);
+        final ByteBuffer result = buffer.flip().duplicate();
+        finished = true;
+        restartCount = 0;
+        entries = 0;
+        lastKey = ByteBuffer.allocate(0);
+        return result;
+    }
+
+    private void ensureRemaining(final int bytes) {
+        if (buffer.remaining() < bytes) {
+            final ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+            grown.put(buffer.flip());
+            buffer = grown;
+        }
+    }
+}
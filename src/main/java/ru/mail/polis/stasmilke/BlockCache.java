@@ -0,0 +1,288 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-bounded cache of {@link SSTable} data blocks, which may be shared by several {@link LsmDAO}s.
+ * It pays off with {@link Config.Builder#mappedReads} turned off, when every block read is a syscall.
+ *
+ * <p>Blocks are keyed by a table identity, which is never reused, and the block offset, so the blocks of
+ * deleted tables are never served and just age out. The cache is split into independently locked segments.
+ */
+public final class BlockCache {
+    private static final int SEGMENTS = 16;
+    /**
+     * Rough heap cost of an entry besides the block itself.
+     */
+    private static final long ENTRY_OVERHEAD = 128L;
+
+    @NotNull
+    private final Segment[] segments;
+    private final long capacity;
+    private final boolean offHeap;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private BlockCache(
+            final long capacity,
+            final boolean offHeap,
+            final boolean clock) {
+        if (capacity <= 0L) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.offHeap = offHeap;
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            final long segmentCapacity = Math.max(1L, capacity / SEGMENTS);
+            segments[i] = clock ? new ClockSegment(segmentCapacity) : new LruSegment(segmentCapacity);
+        }
+    }
+
+    /**
+     * Evicts the least recently used blocks.
+     *
+     * @param capacity max size of cached blocks in bytes
+     * @param offHeap whether blocks are copied to direct buffers, so that they don't count against the heap
+     */
+    @NotNull
+    public static BlockCache lru(
+            final long capacity,
+            final boolean offHeap) {
+        return new BlockCache(capacity, offHeap, false);
+    }
+
+    /**
+     * Evicts the blocks which haven't been used since the clock hand has passed them last time.
+     * Unlike {@link #lru}, hits take no locks.
+     *
+     * @param capacity max size of cached blocks in bytes
+     * @param offHeap whether blocks are copied to direct buffers, so that they don't count against the heap
+     */
+    @NotNull
+    public static BlockCache clock(
+            final long capacity,
+            final boolean offHeap) {
+        return new BlockCache(capacity, offHeap, true);
+    }
+
+    public long capacity() {
+        return capacity;
+    }
+
+    public long sizeInBytes() {
+        long result = 0L;
+        for (final Segment segment : segments) {
+            result += segment.sizeInBytes();
+        }
+        return result;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    @Nullable
+    ByteBuffer get(
+            final long table,
+            final long offset) {
+        final Key key = new Key(table, offset);
+        final ByteBuffer result = segment(key).get(key);
+        if (result == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Caches the block and returns the cached copy to read from.
+     */
+    @NotNull
+    ByteBuffer put(
+            final long table,
+            final long offset,
+            @NotNull final ByteBuffer block) {
+        final ByteBuffer copy = offHeap
+                ? ByteBuffer.allocateDirect(block.remaining())
+                : ByteBuffer.allocate(block.remaining());
+        copy.put(block.duplicate()).flip();
+        final Key key = new Key(table, offset);
+        return segment(key).put(key, copy.asReadOnlyBuffer());
+    }
+
+    @NotNull
+    private Segment segment(@NotNull final Key key) {
+        return segments[Math.floorMod(key.hashCode(), SEGMENTS)];
+    }
+
+    private static long weight(@NotNull final ByteBuffer block) {
+        return ENTRY_OVERHEAD + block.capacity();
+    }
+
+    private static final class Key {
+        private final long table;
+        private final long offset;
+
+        Key(final long table, final long offset) {
+            this.table = table;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return table == key.table && offset == key.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(table * 31 + offset) * 0x9E3779B9;
+        }
+    }
+
+    private interface Segment {
+        @Nullable
+        ByteBuffer get(@NotNull Key key);
+
+        /**
+         * Returns the block already cached under the key, if any, or the new one.
+         */
+        @NotNull
+        ByteBuffer put(@NotNull Key key, @NotNull ByteBuffer block);
+
+        long sizeInBytes();
+    }
+
+    private static final class LruSegment implements Segment {
+        private final long capacity;
+        private final LinkedHashMap<Key, ByteBuffer> blocks = new LinkedHashMap<>(16, 0.75f, true);
+        private long size;
+
+        LruSegment(final long capacity) {
+            this.capacity = capacity;
+        }
+
+        @Nullable
+        @Override
+        public synchronized ByteBuffer get(@NotNull final Key key) {
+            return blocks.get(key);
+        }
+
+        @NotNull
+        @Override
+        public synchronized ByteBuffer put(
+                @NotNull final Key key,
+                @NotNull final ByteBuffer block) {
+            final ByteBuffer existing = blocks.putIfAbsent(key, block);
+            if (existing != null) {
+                return existing;
+            }
+            size += weight(block);
+            // The new block is the most recent one, so it goes last if at all
+            final Iterator<Map.Entry<Key, ByteBuffer>> eldest = blocks.entrySet().iterator();
+            while (size > capacity && eldest.hasNext()) {
+                size -= weight(eldest.next().getValue());
+                eldest.remove();
+            }
+            return block;
+        }
+
+        @Override
+        public synchronized long sizeInBytes() {
+            return size;
+        }
+    }
+
+    private static final class ClockSegment implements Segment {
+        private final long capacity;
+        private final Map<Key, ClockEntry> blocks = new ConcurrentHashMap<>();
+        private final Queue<ClockEntry> ring = new ArrayDeque<>();
+        private long size;
+
+        ClockSegment(final long capacity) {
+            this.capacity = capacity;
+        }
+
+        @Nullable
+        @Override
+        public ByteBuffer get(@NotNull final Key key) {
+            final ClockEntry entry = blocks.get(key);
+            if (entry == null) {
+                return null;
+            }
+            entry.referenced = true;
+            return entry.block;
+        }
+
+        @NotNull
+        @Override
+        public synchronized ByteBuffer put(
+                @NotNull final Key key,
+                @NotNull final ByteBuffer block) {
+            final ClockEntry existing = blocks.get(key);
+            if (existing != null) {
+                return existing.block;
+            }
+            // The new block starts referenced, otherwise the hand would evict it first when the others are hot
+            final ClockEntry entry = new ClockEntry(key, block);
+            entry.referenced = true;
+            blocks.put(key, entry);
+            ring.add(entry);
+            size += weight(block);
+            // The hand gives the referenced blocks a second chance
+            while (size > capacity && !ring.isEmpty()) {
+                final ClockEntry candidate = ring.remove();
+                if (candidate.referenced) {
+                    candidate.referenced = false;
+                    ring.add(candidate);
+                } else {
+                    blocks.remove(candidate.key);
+                    size -= weight(candidate.block);
+                }
+            }
+            return block;
+        }
+
+        @Override
+        public synchronized long sizeInBytes() {
+            return size;
+        }
+    }
+
+    private static final class ClockEntry {
+        @NotNull
+        final Key key;
+        @NotNull
+        final ByteBuffer block;
+        volatile boolean referenced;
+
+        ClockEntry(
+                @NotNull final Key key,
+                @NotNull final ByteBuffer block) {
+            this.key = key;
+            this.block = block;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Stores {@link Block}s on disk as {@code [compression id][uncompressed length][payload]}.
+ */
+final class BlockCodec {
+    private static final int HEADER = Byte.BYTES + Integer.BYTES;
+
+    @NotNull
+    private final Compression compression;
+    @NotNull
+    private ByteBuffer buffer = ByteBuffer.allocate(0);
+
+    BlockCodec(@NotNull final Compression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Returns the stored form of the block, valid until the next call.
+     */
+    @NotNull
+    ByteBuffer encode(@NotNull final ByteBuffer block) {
+        final int length = block.remaining();
+        if (buffer.capacity() < HEADER + length) {
+            buffer = ByteBuffer.allocate(HEADER + length);
+        }
+        // Compressed payload must be smaller than the block, otherwise the block is stored as is
+        buffer.clear().limit(HEADER + length - 1).position(HEADER);
+        final boolean compressed;
+        switch (compression) {
+            case LZ4:
+                compressed = Lz4.compress(block.duplicate(), buffer);
+                break;
+            case DEFLATE:
+                compressed = deflate(block.duplicate(), buffer);
+                break;
+            default:
+                compressed = false;
+                break;
+        }
+        if (!compressed) {
+            buffer.clear().position(HEADER);
+            buffer.put(block.duplicate());
+        }
+        buffer.put(0, (compressed ? compression : Compression.NONE).id);
+        buffer.putInt(Byte.BYTES, length);
+        return buffer.flip();
+    }
+
+    /**
+     * Restores the block from its stored form, uncompressed blocks aren't copied.
+     */
+    @NotNull
+    static ByteBuffer decode(@NotNull final ByteBuffer stored) throws IOException {
+        final Compression compression = Compression.byId(stored.get(0));
+        final int length = stored.getInt(Byte.BYTES);
+        final ByteBuffer payload = Bytes.slice(stored, HEADER, stored.limit() - HEADER);
+        if (compression == Compression.NONE) {
+            return payload;
+        }
+        final ByteBuffer result = ByteBuffer.allocate(length);
+        if (compression == Compression.LZ4) {
+            Lz4.decompress(payload, result);
+        } else {
+            inflate(payload, result);
+        }
+        return result.flip();
+    }
+
+    private static boolean deflate(
+            @NotNull final ByteBuffer src,
+            @NotNull final ByteBuffer dst) {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(src);
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (!dst.hasRemaining()) {
+                    return false;
+                }
+                deflater.deflate(dst);
+            }
+            return true;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void inflate(
+            @NotNull final ByteBuffer src,
+            @NotNull final ByteBuffer dst) throws IOException {
+        final Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(src);
+            while (dst.hasRemaining()) {
+                if (inflater.inflate(dst) == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Truncated deflate block");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Malformed deflate block", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
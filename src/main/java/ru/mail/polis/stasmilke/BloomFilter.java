@@ -0,0 +1,87 @@
+package ru.mail.polis.stasmilke;
+
+import com.google.common.hash.Hashing;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Bloom filter over the keys of one {@link SSTable}, stored in its footer.
+ * The probes are derived from a single 64-bit murmur3 hash of the key by double hashing.
+ */
+final class BloomFilter {
+    private static final int BITS_PER_KEY = 10;
+    /**
+     * Optimal for {@link #BITS_PER_KEY}, gives about 1% of false positives.
+     */
+    static final int HASHES = 7;
+
+    @NotNull
+    private final LongBuffer words;
+    private final long bits;
+    private final int hashes;
+
+    BloomFilter(
+            @NotNull final LongBuffer words,
+            final int hashes) {
+        if (words.capacity() == 0 || hashes <= 0) {
+            throw new IllegalArgumentException("Malformed filter");
+        }
+        this.words = words;
+        this.bits = (long) words.capacity() * Long.SIZE;
+        this.hashes = hashes;
+    }
+
+    /**
+     * Creates an empty filter sized for the number of keys.
+     */
+    @NotNull
+    static BloomFilter create(final int keys) {
+        final long words = Math.max(1L, ((long) keys * BITS_PER_KEY + Long.SIZE - 1) / Long.SIZE);
+        return new BloomFilter(ByteBuffer.allocate(Math.toIntExact(words * Long.BYTES)).asLongBuffer(), HASHES);
+    }
+
+    static long hash(@NotNull final ByteBuffer key) {
+        return Hashing.murmur3_128().hashBytes(key.duplicate()).asLong();
+    }
+
+    void add(final long hash) {
+        final int first = (int) hash;
+        final int second = (int) (hash >>> Integer.SIZE);
+        for (int i = 0; i < hashes; i++) {
+            final long bit = ((first + (long) i * second) & Long.MAX_VALUE) % bits;
+            final int word = (int) (bit / Long.SIZE);
+            words.put(word, words.get(word) | (1L << bit));
+        }
+    }
+
+    /**
+     * Whether the key with the {@link #hash} may have been added.
+     */
+    boolean mightContain(final long hash) {
+        final int first = (int) hash;
+        final int second = (int) (hash >>> Integer.SIZE);
+        for (int i = 0; i < hashes; i++) {
+            final long bit = ((first + (long) i * second) & Long.MAX_VALUE) % bits;
+            if ((words.get((int) (bit / Long.SIZE)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int getHashes() {
+        return hashes;
+    }
+
+    /**
+     * Returns the bit array to be written to disk.
+     */
+    @NotNull
+    ByteBuffer toBytes() {
+        final ByteBuffer result = ByteBuffer.allocate(words.capacity() * Long.BYTES);
+        result.asLongBuffer().put(words.duplicate().rewind());
+        return result;
+    }
+}
@@ -0,0 +1,150 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocation free helpers for keys stored inside bigger buffers.
+ */
+final class Bytes {
+    private Bytes() {
+        // Not instantiable
+    }
+
+    /**
+     * Compares the key with {@code length} bytes of the buffer starting at absolute {@code offset}
+     * the way {@link ByteBuffer#compareTo} does, without slicing the buffer.
+     */
+    static int compare(
+            @NotNull final ByteBuffer key,
+            @NotNull final ByteBuffer buffer,
+            final int offset,
+            final int length) {
+        final int common = Math.min(key.remaining(), length);
+        for (int i = 0; i < common; i++) {
+            final int comp = Byte.compare(key.get(key.position() + i), buffer.get(offset + i));
+            if (comp != 0) {
+                return comp;
+            }
+        }
+        return key.remaining() - length;
+    }
+
+    /**
+     * Returns the shortest prefix of the key which is still greater than the previous key.
+     * Such a prefix separates two neighbour blocks just as well as the whole key does.
+     */
+    @NotNull
+    static ByteBuffer separator(
+            @NotNull final ByteBuffer previous,
+            @NotNull final ByteBuffer key) {
+        assert previous.compareTo(key) < 0;
+        final int common = Math.min(previous.remaining(), key.remaining());
+        int length = 0;
+        while (length < common && previous.get(previous.position() + length) == key.get(key.position() + length)) {
+            length++;
+        }
+        final ByteBuffer result = ByteBuffer.allocate(Math.min(length + 1, key.remaining()));
+        result.put(slice(key, key.position(), result.capacity()));
+        return result.flip();
+    }
+
+    /**
+     * Returns {@code length} bytes of the buffer starting at absolute {@code offset} positioned at zero.
+     */
+    @NotNull
+    static ByteBuffer slice(
+            @NotNull final ByteBuffer buffer,
+            final int offset,
+            final int length) {
+        final ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset).limit(offset + length);
+        return duplicate.slice();
+    }
+
+    /**
+     * Appends the non-negative value in 7-bit groups, least significant first.
+     */
+    static void putVarInt(
+            @NotNull final ByteBuffer out,
+            final int value) {
+        assert value >= 0;
+        int rest = value;
+        while ((rest & ~0x7F) != 0) {
+            out.put((byte) (rest & 0x7F | 0x80));
+            rest >>>= 7;
+        }
+        out.put((byte) rest);
+    }
+
+    /**
+     * Reads the value written by {@link #putVarInt} at absolute {@code offset}.
+     */
+    static int getVarInt(
+            @NotNull final ByteBuffer buffer,
+            final int offset) {
+        int result = 0;
+        int shift = 0;
+        int position = offset;
+        byte current;
+        do {
+            current = buffer.get(position++);
+            result |= (current & 0x7F) << shift;
+            shift += 7;
+        } while (current < 0);
+        return result;
+    }
+
+    static int varIntSize(final int value) {
+        assert value >= 0;
+        return value == 0 ? 1 : (Integer.SIZE - Integer.numberOfLeadingZeros(value) + 6) / 7;
+    }
+
+    /**
+     * Appends the value in 7-bit groups like {@link #putVarInt} does, negative values take ten bytes.
+     */
+    static void putVarLong(
+            @NotNull final ByteBuffer out,
+            final long value) {
+        long rest = value;
+        while ((rest & ~0x7FL) != 0L) {
+            out.put((byte) (rest & 0x7F | 0x80));
+            rest >>>= 7;
+        }
+        out.put((byte) rest);
+    }
+
+    /**
+     * Reads the value written by {@link #putVarLong} at absolute {@code offset}.
+     */
+    static long getVarLong(
+            @NotNull final ByteBuffer buffer,
+            final int offset) {
+        long result = 0L;
+        int shift = 0;
+        int position = offset;
+        byte current;
+        do {
+            current = buffer.get(position++);
+            result |= (current & 0x7FL) << shift;
+            shift += 7;
+        } while (current < 0);
+        return result;
+    }
+
+    static int varLongSize(final long value) {
+        return value == 0L ? 1 : (Long.SIZE - Long.numberOfLeadingZeros(value) + 6) / 7;
+    }
+
+    /**
+     * Maps signed values to unsigned ones so that small negative values get short varints too.
+     */
+    static long zigZag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(final long value) {
+        return (value >>> 1) ^ -(value & 1L);
+    }
+}
@@ -3,7 +3,6 @@ package ru.mail.polis.stasmilke;
 import org.jetbrains.annotations.NotNull;
 
 import java.nio.ByteBuffer;
-import java.util.Comparator;
 
 final class Cell {
     @NotNull
@@ -11,9 +10,6 @@ final class Cell {
     @NotNull
     private final Value value;
 
-    static final Comparator<Cell> COMPARATOR =
-            Comparator.comparing(Cell::getKey).thenComparing(Cell::getValue);
-
     public Cell(
                 @NotNull final ByteBuffer key,
                 @NotNull final Value value) {
@@ -30,4 +26,11 @@ final class Cell {
     public Value getValue() {
         return value;
     }
+
+    /**
+     * Compares the keys in place unlike {@link #getKey}, which makes a buffer.
+     */
+    int compareKeyTo(@NotNull final Cell other) {
+        return key.compareTo(other.key);
+    }
 }
@@ -0,0 +1,59 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link TableFile} issuing a positional {@link FileChannel#read} per access.
+ */
+final class ChannelTableFile implements TableFile {
+    @NotNull
+    private final FileChannel channel;
+    private final long size;
+
+    ChannelTableFile(@NotNull final File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        size = channel.size();
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public int getInt(final long offset) throws IOException {
+        return slice(offset, Integer.BYTES).getInt();
+    }
+
+    @Override
+    public long getLong(final long offset) throws IOException {
+        return slice(offset, Long.BYTES).getLong();
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer slice(final long offset, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of table at " + position);
+            }
+            position += read;
+        }
+        return buffer.rewind();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
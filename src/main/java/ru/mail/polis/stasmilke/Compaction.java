@@ -0,0 +1,171 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * {@link SSTable}s chosen by a {@link CompactionStrategy} to be merged into one level.
+ */
+final class Compaction {
+    /**
+     * A key range isn't worth a worker of its own unless it spans this many blocks.
+     */
+    private static final int MIN_PARTITION_BLOCKS = 256;
+
+    /**
+     * Inputs ordered by {@link SSTable#NEWEST_FIRST}.
+     */
+    @NotNull
+    final List<SSTable> inputs;
+    final int outputLevel;
+    /**
+     * Outputs are split at cell boundaries once they grow past this size.
+     */
+    final long maxOutputBytes;
+
+    Compaction(
+            @NotNull final Collection<SSTable> inputs,
+            final int outputLevel,
+            final long maxOutputBytes) {
+        assert !inputs.isEmpty();
+        assert outputLevel >= 0;
+        assert maxOutputBytes > 0L;
+        final List<SSTable> sorted = new ArrayList<>(inputs);
+        sorted.sort(SSTable.NEWEST_FIRST);
+        // Level zero tables overlap, so there the output takes the place of its inputs
+        assert outputLevel > 0 || sorted.get(sorted.size() - 1).getLevel() == 0;
+        this.inputs = Collections.unmodifiableList(sorted);
+        this.outputLevel = outputLevel;
+        this.maxOutputBytes = maxOutputBytes;
+    }
+
+    /**
+     * Collects a table with too many expired tombstones together with the older tables it overlaps,
+     * so that the result is {@link #isBottommost} and the tombstones are dropped.
+     *
+     * @param ratio min share of tombstones among the cells of the table
+     * @param expiredBefore the tombstones of the table must all be older than this timestamp
+     * @return {@code null} if no table qualifies
+     */
+    @Nullable
+    static Compaction ofTombstones(
+            @NotNull final TableSet tables,
+            final double ratio,
+            final long expiredBefore,
+            @NotNull final CompactionStrategy strategy) {
+        SSTable densest = null;
+        double densestRatio = ratio;
+        for (final SSTable table : tables.ssTablesNewestFirst) {
+            final double tableRatio = (double) table.getTombstones() / table.size();
+            if (table.getTombstones() > 0
+                    && tableRatio >= densestRatio
+                    && table.getNewestTombstone() < expiredBefore) {
+                densest = table;
+                densestRatio = tableRatio;
+            }
+        }
+        if (densest == null) {
+            return null;
+        }
+
+        final List<SSTable> inputs = new ArrayList<>();
+        inputs.add(densest);
+        ByteBuffer from = densest.getFirstKey();
+        ByteBuffer to = densest.getLastKey();
+        int outputLevel = densest.getLevel();
+        // Older tables overlapping the inputs may widen the key range, which may take in more tables
+        for (boolean added = true; added; ) {
+            added = false;
+            for (final SSTable table : tables.ssTablesNewestFirst) {
+                if (SSTable.NEWEST_FIRST.compare(table, densest) > 0
+                        && !inputs.contains(table)
+                        && table.overlaps(from, to)) {
+                    inputs.add(table);
+                    from = min(from, table.getFirstKey());
+                    to = max(to, table.getLastKey());
+                    outputLevel = Math.max(outputLevel, table.getLevel());
+                    added = true;
+                }
+            }
+        }
+        return new Compaction(inputs, outputLevel, strategy.maxOutputBytes(outputLevel));
+    }
+
+    /**
+     * Whether no table left out of the compaction may hold older versions of the keys of its inputs,
+     * so the tombstones have nothing to shadow in the output.
+     */
+    boolean isBottommost(@NotNull final TableSet tables) {
+        ByteBuffer from = inputs.get(0).getFirstKey();
+        ByteBuffer to = inputs.get(0).getLastKey();
+        for (final SSTable input : inputs) {
+            from = min(from, input.getFirstKey());
+            to = max(to, input.getLastKey());
+        }
+        final SSTable newest = inputs.get(0);
+        for (final SSTable table : tables.ssTablesNewestFirst) {
+            if (SSTable.NEWEST_FIRST.compare(table, newest) > 0
+                    && !inputs.contains(table)
+                    && table.overlaps(from, to)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Splits the key space into ranges of about the same size to be merged in parallel,
+     * sampling the block indexes of the inputs.
+     *
+     * @return ascending keys starting every range but the first one, empty if the compaction isn't worth splitting
+     */
+    @NotNull
+    List<ByteBuffer> boundaries(final int maxPartitions) throws IOException {
+        if (maxPartitions < 2) {
+            return Collections.emptyList();
+        }
+        final List<ByteBuffer> samples = new ArrayList<>();
+        for (final SSTable input : inputs) {
+            samples.addAll(input.sampleKeys());
+        }
+        int partitions = Math.min(maxPartitions, samples.size() / MIN_PARTITION_BLOCKS);
+        if (outputLevel == 0) {
+            // Every output of level zero takes the generation of an input
+            partitions = Math.min(partitions, inputs.size());
+        }
+        if (partitions < 2) {
+            return Collections.emptyList();
+        }
+        samples.sort(Comparator.naturalOrder());
+        final List<ByteBuffer> result = new ArrayList<>(partitions - 1);
+        for (int i = 1; i < partitions; i++) {
+            final ByteBuffer boundary = samples.get((int) ((long) samples.size() * i / partitions));
+            if (result.isEmpty() || result.get(result.size() - 1).compareTo(boundary) < 0) {
+                result.add(boundary);
+            }
+        }
+        return result;
+    }
+
+    @NotNull
+    private static ByteBuffer min(
+            @NotNull final ByteBuffer left,
+            @NotNull final ByteBuffer right) {
+        return left.compareTo(right) <= 0 ? left : right;
+    }
+
+    @NotNull
+    private static ByteBuffer max(
+            @NotNull final ByteBuffer left,
+            @NotNull final ByteBuffer right) {
+        return left.compareTo(right) >= 0 ? left : right;
+    }
+}
@@ -0,0 +1,136 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Durable record of how a compaction replaces its inputs.
+ * It is committed when every output is on disk as a temporary file and before any of them takes its place,
+ * so a compaction interrupted by a crash is finished on startup instead of leaving a mix of inputs and outputs.
+ * Every line is either {@code move <temporary file> <table file>} or {@code delete <table file>}.
+ */
+final class CompactionManifest {
+    static final String NAME = "compaction.manifest";
+    private static final String MOVE = "move";
+    private static final String DELETE = "delete";
+    private static final String SEPARATOR = " ";
+
+    @NotNull
+    private final File storage;
+    private final List<String[]> moves = new ArrayList<>();
+    private final List<String> deletes = new ArrayList<>();
+
+    CompactionManifest(@NotNull final File storage) {
+        this.storage = storage;
+    }
+
+    void move(
+            @NotNull final File from,
+            @NotNull final File to) {
+        moves.add(new String[]{from.getName(), to.getName()});
+    }
+
+    void delete(@NotNull final File file) {
+        deletes.add(file.getName());
+    }
+
+    /**
+     * Writes the manifest and forces it to disk, after that the compaction is bound to be finished.
+     */
+    void commit() throws IOException {
+        final StringBuilder lines = new StringBuilder();
+        for (final String[] move : moves) {
+            lines.append(MOVE).append(SEPARATOR).append(move[0]).append(SEPARATOR).append(move[1]).append('\n');
+        }
+        for (final String file : deletes) {
+            lines.append(DELETE).append(SEPARATOR).append(file).append('\n');
+        }
+        final Path temp = new File(storage, NAME + ".temp").toPath();
+        try (FileChannel channel = FileChannel.open(
+                temp,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            final ByteBuffer buffer = StandardCharsets.UTF_8.encode(lines.toString());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, file().toPath(), StandardCopyOption.ATOMIC_MOVE);
+        forceStorage();
+    }
+
+    /**
+     * Moves the outputs which are still temporary in place of the tables.
+     */
+    void moveOutputs() throws IOException {
+        for (final String[] move : moves) {
+            final Path from = new File(storage, move[0]).toPath();
+            if (Files.exists(from)) {
+                Files.move(from, new File(storage, move[1]).toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    /**
+     * Deletes the inputs which are left and then the manifest itself.
+     */
+    void deleteInputs() throws IOException {
+        for (final String file : deletes) {
+            Files.deleteIfExists(new File(storage, file).toPath());
+        }
+        // No input may come back once the manifest is gone
+        forceStorage();
+        Files.delete(file().toPath());
+    }
+
+    /**
+     * Finishes the compaction whose manifest has been left in the storage, if any.
+     *
+     * @return whether there has been one
+     */
+    static boolean recover(@NotNull final File storage) throws IOException {
+        final CompactionManifest manifest = new CompactionManifest(storage);
+        final File file = manifest.file();
+        if (!file.exists()) {
+            return false;
+        }
+        for (final String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            final String[] parts = line.split(SEPARATOR);
+            if (parts.length == 3 && MOVE.equals(parts[0])) {
+                manifest.moves.add(new String[]{parts[1], parts[2]});
+            } else if (parts.length == 2 && DELETE.equals(parts[0])) {
+                manifest.deletes.add(parts[1]);
+            } else {
+                throw new IOException("Broken compaction manifest line: " + line);
+            }
+        }
+        manifest.moveOutputs();
+        manifest.deleteInputs();
+        return true;
+    }
+
+    @NotNull
+    private File file() {
+        return new File(storage, NAME);
+    }
+
+    private void forceStorage() throws IOException {
+        try (FileChannel directory = FileChannel.open(storage.toPath(), StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+    }
+}
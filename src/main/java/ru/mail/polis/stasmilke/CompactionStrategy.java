@@ -0,0 +1,111 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Decides which {@link SSTable}s {@link LsmDAO} compacts and into which level.
+ */
+public abstract class CompactionStrategy {
+
+    CompactionStrategy() {
+        // Only the strategies of this package
+    }
+
+    /**
+     * Chooses the next background compaction.
+     *
+     * @return {@code null} if nothing needs compaction
+     */
+    @Nullable
+    abstract Compaction pick(@NotNull TableSet tables);
+
+    /**
+     * Chooses the compaction requested by {@link LsmDAO#compact()}.
+     *
+     * @return {@code null} if nothing needs compaction
+     */
+    @Nullable
+    abstract Compaction major(@NotNull TableSet tables);
+
+    /**
+     * Returns the size the outputs of the level are split at.
+     */
+    long maxOutputBytes(final int level) {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Merges all the {@link SSTable}s into one table of the bottom level.
+     */
+    @Nullable
+    static Compaction mergeAll(@NotNull final TableSet tables) {
+        final List<SSTable> newestFirst = tables.ssTablesNewestFirst;
+        if (newestFirst.size() < 2) {
+            return null;
+        }
+        final int bottom = newestFirst.get(newestFirst.size() - 1).getLevel();
+        return new Compaction(newestFirst, bottom, Long.MAX_VALUE);
+    }
+
+    /**
+     * Merges all the {@link SSTable}s into one as soon as there are more than {@code threshold} of them.
+     */
+    @NotNull
+    public static CompactionStrategy full(final int threshold) {
+        return new FullCompactionStrategy(threshold);
+    }
+
+    /**
+     * Size-tiered compaction merging from 4 to 32 tables differing in size by half at most.
+     */
+    @NotNull
+    public static CompactionStrategy sizeTiered() {
+        return sizeTiered(4, 32, 0.5, 1.5);
+    }
+
+    /**
+     * Cassandra style compaction merging buckets of similarly sized tables.
+     *
+     * @param minThreshold min number of tables in a bucket to compact it
+     * @param maxThreshold max number of tables merged at once
+     * @param bucketLow a table joins a bucket if it's no smaller than its average size times this
+     * @param bucketHigh a table joins a bucket if it's no bigger than its average size times this
+     */
+    @NotNull
+    public static CompactionStrategy sizeTiered(
+            final int minThreshold,
+            final int maxThreshold,
+            final double bucketLow,
+            final double bucketHigh) {
+        return new SizeTieredCompactionStrategy(minThreshold, maxThreshold, bucketLow, bucketHigh);
+    }
+
+    /**
+     * LevelDB style compaction with the default sizes.
+     */
+    @NotNull
+    public static CompactionStrategy leveled() {
+        return leveled(4, 2L * 1024 * 1024, 10L * 1024 * 1024, 10);
+    }
+
+    /**
+     * LevelDB style compaction: level zero holds flushed tables, every next level holds
+     * non-overlapping tables and is {@code levelMultiplier} times bigger than the previous one.
+     *
+     * @param levelZeroTrigger how many flushed tables are merged into level one at once
+     * @param targetFileBytes size of the tables of the levels below zero
+     * @param levelOneBytes max total size of level one
+     * @param levelMultiplier growth of the max size from one level to the next
+     */
+    @NotNull
+    public static CompactionStrategy leveled(
+            final int levelZeroTrigger,
+            final long targetFileBytes,
+            final long levelOneBytes,
+            final int levelMultiplier) {
+        return new LeveledCompactionStrategy(levelZeroTrigger, targetFileBytes, levelOneBytes, levelMultiplier);
+    }
+}
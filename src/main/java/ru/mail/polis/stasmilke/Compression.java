@@ -0,0 +1,41 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * How {@link SSTable} blocks are compressed.
+ * Every block records its own codec, so the tables written with different settings are read together,
+ * and the blocks which don't shrink are stored as is.
+ */
+public enum Compression {
+    /**
+     * Blocks are stored as is.
+     */
+    NONE(0),
+    /**
+     * LZ4 block format implemented in pure Java, cheap enough for every flush and read.
+     */
+    LZ4(1),
+    /**
+     * Raw deflate of {@link java.util.zip.Deflater}, a better ratio for more CPU.
+     */
+    DEFLATE(2);
+
+    final byte id;
+
+    Compression(final int id) {
+        this.id = (byte) id;
+    }
+
+    @NotNull
+    static Compression byId(final byte id) throws IOException {
+        for (final Compression compression : values()) {
+            if (compression.id == id) {
+                return compression;
+            }
+        }
+        throw new IOException("Unknown compression " + id);
+    }
+}
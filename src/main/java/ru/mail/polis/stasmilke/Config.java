@@ -0,0 +1,253 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Tuning options of {@link LsmDAO}.
+ */
+public final class Config {
+    final long flushThreshold;
+    final boolean mappedReads;
+    final int maxPendingFlushes;
+    @NotNull
+    final CompactionStrategy compactionStrategy;
+    final long compactionBytesPerSecond;
+    final int compactionThreads;
+    @NotNull
+    final SyncPolicy syncPolicy;
+    final long syncPeriodMillis;
+    final int blockSize;
+    @Nullable
+    final BlockCache blockCache;
+    @NotNull
+    final Compression compression;
+    @Nullable
+    final WriteBufferManager writeBufferManager;
+    @Nullable
+    final String metricsName;
+    final double traceSampling;
+    final long tombstoneGraceMillis;
+    final double tombstoneCompactionRatio;
+
+    private Config(@NotNull final Builder builder) {
+        this.flushThreshold = builder.flushThreshold;
+        this.mappedReads = builder.mappedReads;
+        this.maxPendingFlushes = builder.maxPendingFlushes;
+        this.compactionStrategy = builder.compactionStrategy;
+        this.compactionBytesPerSecond = builder.compactionBytesPerSecond;
+        this.compactionThreads = builder.compactionThreads;
+        this.syncPolicy = builder.syncPolicy;
+        this.syncPeriodMillis = builder.syncPeriodMillis;
+        this.blockSize = builder.blockSize;
+        this.blockCache = builder.blockCache;
+        this.compression = builder.compression;
+        this.writeBufferManager = builder.writeBufferManager;
+        this.metricsName = builder.metricsName;
+        this.traceSampling = builder.traceSampling;
+        this.tombstoneGraceMillis = builder.tombstoneGraceMillis;
+        this.tombstoneCompactionRatio = builder.tombstoneCompactionRatio;
+    }
+
+    /**
+     * Starts building a {@link Config} with default options.
+     *
+     * @param flushThreshold max size of {@link MemTable}
+     */
+    @NotNull
+    public static Builder builder(final long flushThreshold) {
+        return new Builder(flushThreshold);
+    }
+
+    public static final class Builder {
+        private final long flushThreshold;
+        private boolean mappedReads = true;
+        private int maxPendingFlushes = 2;
+        private CompactionStrategy compactionStrategy = CompactionStrategy.full(100);
+        private long compactionBytesPerSecond;
+        private int compactionThreads = Runtime.getRuntime().availableProcessors();
+        private SyncPolicy syncPolicy = SyncPolicy.PERIODIC;
+        private long syncPeriodMillis = 100L;
+        private int blockSize = 4 * 1024;
+        private BlockCache blockCache;
+        private Compression compression = Compression.NONE;
+        private WriteBufferManager writeBufferManager;
+        private String metricsName;
+        private double traceSampling;
+        private long tombstoneGraceMillis;
+        private double tombstoneCompactionRatio;
+
+        private Builder(final long flushThreshold) {
+            if (flushThreshold <= 0L) {
+                throw new IllegalArgumentException("Flush threshold must be positive: " + flushThreshold);
+            }
+            this.flushThreshold = flushThreshold;
+        }
+
+        /**
+         * Whether {@link SSTable}s are read through a memory mapping instead of a read per access.
+         */
+        @NotNull
+        public Builder mappedReads(final boolean mappedReads) {
+            this.mappedReads = mappedReads;
+            return this;
+        }
+
+        /**
+         * How many frozen {@link MemTable}s may wait for a flush before writers block.
+         */
+        @NotNull
+        public Builder maxPendingFlushes(final int maxPendingFlushes) {
+            if (maxPendingFlushes <= 0) {
+                throw new IllegalArgumentException("Pending flushes must be positive: " + maxPendingFlushes);
+            }
+            this.maxPendingFlushes = maxPendingFlushes;
+            return this;
+        }
+
+        /**
+         * Which {@link SSTable}s get compacted and when, see {@link CompactionStrategy}.
+         */
+        @NotNull
+        public Builder compactionStrategy(@NotNull final CompactionStrategy compactionStrategy) {
+            this.compactionStrategy = compactionStrategy;
+            return this;
+        }
+
+        /**
+         * Caps the rate compaction writes at, zero means unlimited.
+         */
+        @NotNull
+        public Builder compactionBytesPerSecond(final long compactionBytesPerSecond) {
+            if (compactionBytesPerSecond < 0L) {
+                throw new IllegalArgumentException("Compaction rate can't be negative: " + compactionBytesPerSecond);
+            }
+            this.compactionBytesPerSecond = compactionBytesPerSecond;
+            return this;
+        }
+
+        /**
+         * How many workers merge the key ranges of a big compaction in parallel, one per core by default.
+         */
+        @NotNull
+        public Builder compactionThreads(final int compactionThreads) {
+            if (compactionThreads <= 0) {
+                throw new IllegalArgumentException("Compaction threads must be positive: " + compactionThreads);
+            }
+            this.compactionThreads = compactionThreads;
+            return this;
+        }
+
+        /**
+         * When the write-ahead log is forced to disk, see {@link SyncPolicy}.
+         */
+        @NotNull
+        public Builder syncPolicy(@NotNull final SyncPolicy syncPolicy) {
+            this.syncPolicy = syncPolicy;
+            return this;
+        }
+
+        /**
+         * How often the write-ahead log is forced to disk with {@link SyncPolicy#PERIODIC}.
+         */
+        @NotNull
+        public Builder syncPeriodMillis(final long syncPeriodMillis) {
+            if (syncPeriodMillis <= 0L) {
+                throw new IllegalArgumentException("Sync period must be positive: " + syncPeriodMillis);
+            }
+            this.syncPeriodMillis = syncPeriodMillis;
+            return this;
+        }
+
+        /**
+         * Target size of {@link SSTable} data blocks, a lookup reads one block.
+         */
+        @NotNull
+        public Builder blockSize(final int blockSize) {
+            if (blockSize <= 0) {
+                throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+            }
+            this.blockSize = blockSize;
+            return this;
+        }
+
+        /**
+         * Where {@link SSTable} blocks are cached, none by default. One cache may be shared by several DAOs.
+         */
+        @NotNull
+        public Builder blockCache(@Nullable final BlockCache blockCache) {
+            this.blockCache = blockCache;
+            return this;
+        }
+
+        /**
+         * How the blocks of new {@link SSTable}s are compressed, see {@link Compression}.
+         */
+        @NotNull
+        public Builder compression(@NotNull final Compression compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        /**
+         * Which memory budget the memtables share with other DAOs, none by default.
+         */
+        @NotNull
+        public Builder writeBufferManager(@Nullable final WriteBufferManager writeBufferManager) {
+            this.writeBufferManager = writeBufferManager;
+            return this;
+        }
+
+        /**
+         * Name {@link Metrics} are registered under in the platform MBean server,
+         * as {@code ru.mail.polis.stasmilke:type=LsmDAO,name=<name>}. Not registered by default.
+         */
+        @NotNull
+        public Builder metricsName(@Nullable final String metricsName) {
+            this.metricsName = metricsName;
+            return this;
+        }
+
+        /**
+         * Which share of lookups and range scans is traced and logged, see {@link Trace}. None by default.
+         */
+        @NotNull
+        public Builder traceSampling(final double traceSampling) {
+            if (traceSampling < 0.0 || traceSampling > 1.0) {
+                throw new IllegalArgumentException("Trace sampling must be from 0 to 1: " + traceSampling);
+            }
+            this.traceSampling = traceSampling;
+            return this;
+        }
+
+        /**
+         * How long tombstones are kept after the removal, even when compaction has nothing left for them to shadow.
+         */
+        @NotNull
+        public Builder tombstoneGraceMillis(final long tombstoneGraceMillis) {
+            if (tombstoneGraceMillis < 0L) {
+                throw new IllegalArgumentException("Grace period can't be negative: " + tombstoneGraceMillis);
+            }
+            this.tombstoneGraceMillis = tombstoneGraceMillis;
+            return this;
+        }
+
+        /**
+         * Share of tombstones which gets a table compacted with the older tables it overlaps once they expire,
+         * regardless of {@link CompactionStrategy}. Zero, the default, turns it off.
+         */
+        @NotNull
+        public Builder tombstoneCompactionRatio(final double tombstoneCompactionRatio) {
+            if (tombstoneCompactionRatio < 0.0 || tombstoneCompactionRatio > 1.0) {
+                throw new IllegalArgumentException("Tombstone ratio must be from 0 to 1: " + tombstoneCompactionRatio);
+            }
+            this.tombstoneCompactionRatio = tombstoneCompactionRatio;
+            return this;
+        }
+
+        @NotNull
+        public Config build() {
+            return new Config(this);
+        }
+    }
+}
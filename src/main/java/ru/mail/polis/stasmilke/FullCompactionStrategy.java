@@ -0,0 +1,31 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Merges every {@link SSTable} into one once there are too many of them.
+ */
+final class FullCompactionStrategy extends CompactionStrategy {
+    private final int threshold;
+
+    FullCompactionStrategy(final int threshold) {
+        super();
+        if (threshold <= 1) {
+            throw new IllegalArgumentException("Compaction threshold must exceed 1: " + threshold);
+        }
+        this.threshold = threshold;
+    }
+
+    @Nullable
+    @Override
+    Compaction pick(@NotNull final TableSet tables) {
+        return tables.ssTables.size() > threshold ? major(tables) : null;
+    }
+
+    @Nullable
+    @Override
+    Compaction major(@NotNull final TableSet tables) {
+        return mergeAll(tables);
+    }
+}
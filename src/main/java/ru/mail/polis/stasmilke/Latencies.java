@@ -0,0 +1,111 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of operation latencies in nanoseconds.
+ * Buckets grow exponentially, so percentiles are off by less than {@code 1 / }{@value #SUB_BUCKETS}.
+ * Every bucket is a {@link LongAdder}, so threads recording at once don't contend.
+ */
+final class Latencies {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    @NotNull
+    private final LongAdder[] buckets = new LongAdder[index(Long.MAX_VALUE) + 1];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    Latencies() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(final long nanos) {
+        final long value = Math.max(nanos, 0L);
+        buckets[index(value)].increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    /**
+     * Takes a snapshot, which may miss some of the latencies recorded meanwhile.
+     *
+     * @param seconds time the operations have been counted for
+     */
+    @NotNull
+    OperationMetrics snapshot(final double seconds) {
+        final long[] counts = new long[buckets.length];
+        long total = 0L;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        final long maxNanos = max.get();
+        return new OperationMetrics(
+                total,
+                seconds > 0.0 ? total / seconds : 0.0,
+                total == 0L ? 0.0 : sum.sum() / 1000.0 / total,
+                toMicros(percentile(counts, total, 50.0, maxNanos)),
+                toMicros(percentile(counts, total, 99.0, maxNanos)),
+                toMicros(percentile(counts, total, 99.9, maxNanos)),
+                toMicros(maxNanos));
+    }
+
+    private static long percentile(
+            @NotNull final long[] counts,
+            final long total,
+            final double percentile,
+            final long max) {
+        if (total == 0L) {
+            return 0L;
+        }
+        final long rank = Math.max(1L, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0L;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highest(i), max);
+            }
+        }
+        return max;
+    }
+
+    private static long toMicros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    /**
+     * Values below {@link #SUB_BUCKETS} go as is, bigger ones by their {@link #SUB_BITS} + 1 leading bits.
+     */
+    private static int index(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BITS - 1;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * Returns the biggest value which goes to the bucket.
+     */
+    private static long highest(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long lowest = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
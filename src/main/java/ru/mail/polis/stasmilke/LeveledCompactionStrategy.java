@@ -0,0 +1,121 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LevelDB style compaction.
+ * Level zero collects flushed tables which may overlap. Once there are enough of them,
+ * they are merged together with the overlapping tables of level one. Every level below zero
+ * consists of non-overlapping tables of bounded size, and when a level outgrows its limit
+ * its oldest table is merged into the overlapping tables of the next level.
+ * So a read probes every table of level zero and at most one table per other level.
+ */
+final class LeveledCompactionStrategy extends CompactionStrategy {
+    private final int levelZeroTrigger;
+    private final long targetFileBytes;
+    private final long levelOneBytes;
+    private final int levelMultiplier;
+
+    LeveledCompactionStrategy(
+            final int levelZeroTrigger,
+            final long targetFileBytes,
+            final long levelOneBytes,
+            final int levelMultiplier) {
+        super();
+        if (levelZeroTrigger <= 0 || targetFileBytes <= 0L || levelOneBytes <= 0L || levelMultiplier <= 1) {
+            throw new IllegalArgumentException("Illegal leveled compaction options");
+        }
+        this.levelZeroTrigger = levelZeroTrigger;
+        this.targetFileBytes = targetFileBytes;
+        this.levelOneBytes = levelOneBytes;
+        this.levelMultiplier = levelMultiplier;
+    }
+
+    @Nullable
+    @Override
+    Compaction pick(@NotNull final TableSet tables) {
+        final List<SSTable> levelZero = tables.level(0);
+        if (levelZero.size() >= levelZeroTrigger) {
+            return intoNextLevel(tables, levelZero, 0);
+        }
+
+        final int bottom = bottomLevel(tables);
+        long maxBytes = levelOneBytes;
+        for (int level = 1; level <= bottom; level++) {
+            final List<SSTable> levelTables = tables.level(level);
+            if (sizeInBytes(levelTables) > maxBytes) {
+                // The oldest data goes down first
+                SSTable oldest = levelTables.get(0);
+                for (final SSTable table : levelTables) {
+                    if (table.getGeneration() < oldest.getGeneration()) {
+                        oldest = table;
+                    }
+                }
+                final List<SSTable> inputs = new ArrayList<>();
+                inputs.add(oldest);
+                return intoNextLevel(tables, inputs, level);
+            }
+            maxBytes *= levelMultiplier;
+        }
+        return null;
+    }
+
+    @Nullable
+    @Override
+    Compaction major(@NotNull final TableSet tables) {
+        if (tables.ssTables.isEmpty()) {
+            return null;
+        }
+        return new Compaction(tables.ssTables.values(), Math.max(1, bottomLevel(tables)), targetFileBytes);
+    }
+
+    @Override
+    long maxOutputBytes(final int level) {
+        return level == 0 ? Long.MAX_VALUE : targetFileBytes;
+    }
+
+    /**
+     * Adds the overlapping tables of the next level to the inputs.
+     */
+    @NotNull
+    private Compaction intoNextLevel(
+            @NotNull final TableSet tables,
+            @NotNull final List<SSTable> inputs,
+            final int level) {
+        ByteBuffer from = inputs.get(0).getFirstKey();
+        ByteBuffer to = inputs.get(0).getLastKey();
+        for (final SSTable table : inputs) {
+            if (table.getFirstKey().compareTo(from) < 0) {
+                from = table.getFirstKey();
+            }
+            if (table.getLastKey().compareTo(to) > 0) {
+                to = table.getLastKey();
+            }
+        }
+        final List<SSTable> withOverlapping = new ArrayList<>(inputs);
+        for (final SSTable table : tables.level(level + 1)) {
+            if (table.overlaps(from, to)) {
+                withOverlapping.add(table);
+            }
+        }
+        return new Compaction(withOverlapping, level + 1, targetFileBytes);
+    }
+
+    private static int bottomLevel(@NotNull final TableSet tables) {
+        final List<SSTable> newestFirst = tables.ssTablesNewestFirst;
+        return newestFirst.isEmpty() ? 0 : newestFirst.get(newestFirst.size() - 1).getLevel();
+    }
+
+    private static long sizeInBytes(@NotNull final List<SSTable> tables) {
+        long result = 0L;
+        for (final SSTable table : tables) {
+            result += table.sizeInBytes();
+        }
+        return result;
+    }
+}
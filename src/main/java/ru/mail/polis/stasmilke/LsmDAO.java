@@ -1,7 +1,11 @@
 package ru.mail.polis.stasmilke;
 
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.util.concurrent.RateLimiter;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.mail.polis.DAO;
@@ -11,35 +15,116 @@ import ru.mail.polis.Record;
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Queue;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Stream;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 /**
  * LSM implementation of {@link DAO}.
  */
 public class LsmDAO implements DAO {
     private static final String SUFFIX = ".dat";
     private static final String TEMP = ".temp";
-    private static final String COMPACT = "compact.temp";
-    private static final int SSTABLES_LIMIT = 100;
+    private static final String LOG = ".log";
+    private static final char LEVEL_SEPARATOR = '_';
 
     @NotNull
     private final File storage;
-    private final long flushThreshold;
+    @NotNull
+    private final Config config;
 
-    private Table memTable;
-    private final NavigableMap<Integer, Table> ssTables;
     private final Logger logger = LoggerFactory.getLogger(LsmDAO.class);
-    private int generation;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile TableSet tables;
+    /**
+     * Last generation handed out to a {@link MemTable} or a compacted table.
+     */
+    private final AtomicInteger lastGeneration;
+
+    /**
+     * Frozen {@link MemTable}s are written out by a dedicated thread,
+     * writers block only when {@link Config#maxPendingFlushes} of them are waiting.
+     */
+    private final ExecutorService flusher = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r, "flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    @NotNull
+    private final Semaphore pendingFlushes;
+
+    /**
+     * Compactions run one at a time off the write path and swap their result in atomically.
+     */
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r, "compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    /**
+     * Merges the key ranges of a compaction in parallel.
+     */
+    @NotNull
+    private final ForkJoinPool compactionPool;
+    @Nullable
+    private final RateLimiter compactionLimiter;
+    /**
+     * Compacted tables may still be read by iterators, so they are closed with the DAO.
+     */
+    private final Queue<Table> retired = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Forces the write-ahead log to disk with {@link SyncPolicy#PERIODIC}.
+     */
+    private final ScheduledExecutorService syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "wal-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * Set under the write lock when closing starts, so that other DAOs sharing {@link WriteBufferManager}
+     * don't freeze the tables any more.
+     */
+    private boolean closed;
+
+    @NotNull
+    private final Metrics metrics = new Metrics(() -> tables);
+    /**
+     * Where {@link #metrics} are registered in JMX, if they are.
+     */
+    @Nullable
+    private final ObjectName metricsName;
 
     /**
      * Construct a {@link DAO} instance.
@@ -50,127 +135,807 @@ public class LsmDAO implements DAO {
     public LsmDAO(
             @NotNull final File storage,
             final long flushThreshold) throws IOException {
+        this(storage, Config.builder(flushThreshold).build());
+    }
+
+    /**
+     * Construct a {@link DAO} instance.
+     *
+     * @param storage local disk folder to persist the data to
+     * @param config tuning options
+     */
+    public LsmDAO(
+            @NotNull final File storage,
+            @NotNull final Config config) throws IOException {
         this.storage = storage;
-        assert flushThreshold > 0L;
-        this.flushThreshold = flushThreshold;
-        this.memTable = new MemTable();
-        this.ssTables = new TreeMap<>();
+        this.config = config;
+        this.pendingFlushes = new Semaphore(config.maxPendingFlushes);
+        this.compactionPool = new ForkJoinPool(config.compactionThreads);
+        this.compactionLimiter = config.compactionBytesPerSecond > 0L
+                ? RateLimiter.create(config.compactionBytesPerSecond)
+                : null;
+        if (CompactionManifest.recover(storage)) {
+            logger.info("Interrupted compaction has been finished");
+        }
+        final NavigableMap<Integer, SSTable> ssTables = new TreeMap<>();
+        final NavigableMap<Integer, File> logs = new TreeMap<>();
         try (Stream<Path> files = Files.list(storage.toPath())) {
-            files.filter(path -> path.toString().endsWith(SUFFIX)).forEach(file -> {
+            files.forEach(file -> {
+                final String name = file.getFileName().toString();
                 try {
-                    final String name = file.getFileName().toString();
-                    final int fileGeneration = Integer.parseInt(name.substring(0, name.indexOf(SUFFIX)));
-                    generation = Math.max(fileGeneration, generation);
-                    ssTables.put(fileGeneration, new SSTable(file.toFile()));
+                    if (name.endsWith(TEMP) || name.endsWith(SSTable.HASHES_TEMP)) {
+                        // Unfinished flushes are replayed from their logs and unfinished compactions are redone
+                        Files.delete(file);
+                    } else if (name.endsWith(SUFFIX)) {
+                        final String base = name.substring(0, name.indexOf(SUFFIX));
+                        final int separator = base.indexOf(LEVEL_SEPARATOR);
+                        final int fileGeneration =
+                                Integer.parseInt(separator < 0 ? base : base.substring(0, separator));
+                        final int level = separator < 0 ? 0 : Integer.parseInt(base.substring(separator + 1));
+                        ssTables.put(fileGeneration,
+                                new SSTable(file.toFile(), fileGeneration, level, config));
+                    } else if (name.endsWith(LOG)) {
+                        logs.put(Integer.parseInt(name.substring(0, name.indexOf(LOG))), file.toFile());
+                    }
                 } catch (NumberFormatException e) {
-                    logger.warn(String.format("Incorrect name in file. %s", file.getFileName().toString()));
+                    logger.warn(String.format("Incorrect name in file. %s", name));
                 } catch (IOException e) {
                     logger.warn("IOException in file. %s", e);
                     throw new UncheckedIOException(e);
                 }
             });
         }
-        generation++;
+
+        // Recover the tables which haven't been flushed before the process died
+        for (final Map.Entry<Integer, File> log : logs.entrySet()) {
+            final int logGeneration = log.getKey();
+            if (!ssTables.containsKey(logGeneration)) {
+                final MemTable memTable = new MemTable();
+                WriteAheadLog.replay(log.getValue(), memTable);
+                if (memTable.size() > 0) {
+                    ssTables.put(logGeneration, write(logGeneration, memTable));
+                    logger.info(String.format("Table has been recovered %d", logGeneration));
+                }
+            }
+            Files.delete(log.getValue().toPath());
+        }
+
+        int generation = ssTables.isEmpty() ? 1 : ssTables.lastKey() + 1;
+        if (!logs.isEmpty()) {
+            generation = Math.max(generation, logs.lastKey() + 1);
+        }
+        this.lastGeneration = new AtomicInteger(generation);
+        this.tables = new TableSet(new MemTable(), openLog(generation), new TreeMap<>(), ssTables, generation);
+        if (config.syncPolicy == SyncPolicy.PERIODIC) {
+            syncer.scheduleWithFixedDelay(
+                    this::syncLog,
+                    config.syncPeriodMillis,
+                    config.syncPeriodMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+        this.metricsName = config.metricsName == null ? null : registerMetrics(config.metricsName);
+        if (config.writeBufferManager != null) {
+            config.writeBufferManager.register(this);
+        }
+    }
+
+    @NotNull
+    private ObjectName registerMetrics(@NotNull final String name) throws IOException {
+        try {
+            final ObjectName objectName = new ObjectName(
+                    "ru.mail.polis.stasmilke:type=LsmDAO,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IOException("Can't register metrics " + name, e);
+        }
+    }
+
+    /**
+     * Returns the counters of this DAO, which are updated live.
+     */
+    @NotNull
+    public Metrics metrics() {
+        return metrics;
     }
 
     @NotNull
     @Override
     public Iterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
-        // Removed tombstones
-        final Iterator<Cell> alive = Iterators.filter(cellIterator(from, true), e -> !e.getValue().isTombstone());
-        return Iterators.transform(alive, e -> Record.of(e.getKey(), e.getValue().getData()));
+        return range(from, null);
     }
 
+    /**
+     * Iterates over the range, tracing it with the probability of {@link Config.Builder#traceSampling}.
+     * The trace is logged when the range is over.
+     */
     @NotNull
-    private Iterator<Cell> cellIterator(@NotNull final ByteBuffer from, final boolean addMemTable) throws IOException {
-        final List<Iterator<Cell>> iterators = new ArrayList<>(ssTables.size() + 1);
-        if (addMemTable) {
-            iterators.add(memTable.iterator(from));
+    @Override
+    public Iterator<Record> range(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to) throws IOException {
+        if (!sampled()) {
+            return records(cellIterator(from, to, null));
         }
-        ssTables.descendingMap().values().forEach(t -> {
-            try {
-                iterators.add(t.iterator(from));
-                logger.debug("Iterator added");
-            } catch (IOException e) {
-                logger.warn("Error in iterators: %s", e);
-                throw new RuntimeException("Error", e);
+        final Trace trace = new Trace();
+        final Iterator<Cell> cells = cellIterator(from, to, trace);
+        return records(new Iterator<>() {
+            private boolean logged;
+
+            @Override
+            public boolean hasNext() {
+                final boolean result = cells.hasNext();
+                if (!result && !logged) {
+                    logged = true;
+                    logger.info(String.format("Range has been traced: %s", trace));
+                }
+                return result;
+            }
+
+            @Override
+            public Cell next() {
+                return cells.next();
             }
         });
-        // Sorted duplicates and tombstones
-        final Iterator<Cell> merged = Iterators.mergeSorted(iterators, Cell.COMPARATOR);
-        // One cell per key
-        return Iters.collapseEquals(merged, Cell::getKey);
     }
 
+    /**
+     * Iterates over the range recording into the trace what the iterator reads as it goes.
+     *
+     * @param to exclusive bound, {@code null} for the rest of the keys
+     */
+    @NotNull
+    public Iterator<Record> range(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            @NotNull final Trace trace) throws IOException {
+        return records(cellIterator(from, to, trace));
+    }
+
+    @NotNull
+    private Iterator<Cell> cellIterator(
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            @Nullable final Trace trace) throws IOException {
+        if (to != null && from.compareTo(to) > 0) {
+            return Iters.empty();
+        }
+        final long start = System.nanoTime();
+        final TableSet snapshot = this.tables;
+        final List<Table> sources = new ArrayList<>(snapshot.flushing.size() + snapshot.ssTables.size() + 1);
+        sources.add(snapshot.memTable);
+        sources.addAll(snapshot.flushing.descendingMap().values());
+        sources.addAll(snapshot.ssTablesNewestFirst);
+        final Iterator<Cell> alive = until(cellIterator(from, sources, true, trace), to);
+        metrics.ranges.record(System.nanoTime() - start);
+        return alive;
+    }
+
+    @NotNull
+    private static Iterator<Record> records(@NotNull final Iterator<Cell> cells) {
+        return Iterators.transform(cells, e -> Record.of(e.getKey(), e.getValue().getData()));
+    }
+
+    /**
+     * Looks the key up in the tables newest first and stops at the first version found,
+     * skipping the tables whose filters don't contain it. No merging is involved.
+     * Traces the lookup with the probability of {@link Config.Builder#traceSampling} and logs the trace.
+     */
+    @NotNull
     @Override
-    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) throws IOException {
-        memTable.upsert(key, value);
-        if (memTable.sizeInBytes() > flushThreshold) {
-            flush();
+    public ByteBuffer get(@NotNull final ByteBuffer key) throws IOException, NoSuchElementException {
+        if (!sampled()) {
+            return get(key, null);
+        }
+        final Trace trace = new Trace();
+        try {
+            return get(key, trace);
+        } finally {
+            logger.info(String.format("Get has been traced: %s", trace));
+        }
+    }
+
+    /**
+     * Looks the key up recording into the trace what has been read, if given.
+     */
+    @NotNull
+    public ByteBuffer get(
+            @NotNull final ByteBuffer key,
+            @Nullable final Trace trace) throws IOException, NoSuchElementException {
+        final long start = System.nanoTime();
+        try {
+            return find(key, trace);
+        } finally {
+            metrics.gets.record(System.nanoTime() - start);
+        }
+    }
+
+    private boolean sampled() {
+        return config.traceSampling > 0.0 && ThreadLocalRandom.current().nextDouble() < config.traceSampling;
+    }
+
+    @NotNull
+    private ByteBuffer find(
+            @NotNull final ByteBuffer key,
+            @Nullable final Trace trace) throws IOException {
+        final TableSet snapshot = this.tables;
+        Value value = snapshot.memTable.get(key);
+        if (value == null) {
+            for (final Table table : snapshot.flushing.descendingMap().values()) {
+                value = table.get(key);
+                if (value != null) {
+                    break;
+                }
+            }
+        }
+        if (value == null) {
+            final long hash = BloomFilter.hash(key);
+            int probed = 0;
+            for (final SSTable ssTable : snapshot.ssTablesNewestFirst) {
+                if (ssTable.mightContain(key, hash)) {
+                    probed++;
+                    value = ssTable.get(key, trace == null ? null : trace.table(ssTable));
+                    if (value != null) {
+                        break;
+                    }
+                } else if (trace != null) {
+                    trace.filtered();
+                }
+            }
+            metrics.tablesProbed.add(probed);
         }
-        if (generation > SSTABLES_LIMIT) {
-            compact();
+        if (value == null || value.isTombstone()) {
+            throw new NoSuchElementException("Not found");
+        }
+        return value.getData();
+    }
+
+    /**
+     * Merges the tables, newest first, into the freshest {@link Cell} per key.
+     *
+     * @param skipTombstones whether removed keys are left out
+     * @param trace where the reads are recorded, if anywhere
+     */
+    @NotNull
+    private Iterator<Cell> cellIterator(
+            @NotNull final ByteBuffer from,
+            @NotNull final Collection<? extends Table> sources,
+            final boolean skipTombstones,
+            @Nullable final Trace trace) throws IOException {
+        final List<Iterator<Cell>> iterators = new ArrayList<>(sources.size());
+        for (final Table table : sources) {
+            if (trace != null && table instanceof SSTable) {
+                final SSTable ssTable = (SSTable) table;
+                iterators.add(ssTable.iterator(from, trace.table(ssTable)));
+            } else {
+                iterators.add(table.iterator(from));
+            }
+        }
+        return new MergeIterator(
+                iterators,
+                skipTombstones,
+                skipTombstones ? metrics.scannedTombstones : null,
+                trace);
+    }
+
+    /**
+     * Stops before the exclusive key.
+     *
+     * @param to {@code null} for the rest of the keys
+     */
+    @NotNull
+    private static Iterator<Cell> until(
+            @NotNull final Iterator<Cell> cells,
+            @Nullable final ByteBuffer to) {
+        if (to == null) {
+            return cells;
+        }
+        final PeekingIterator<Cell> all = Iterators.peekingIterator(cells);
+        return new AbstractIterator<>() {
+            @Override
+            protected Cell computeNext() {
+                return all.hasNext() && all.peek().getKey().compareTo(to) < 0 ? all.next() : endOfData();
+            }
+        };
+    }
+
+    @Override
+    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            put(key, new Value(value, MemTable.timestamp()));
+        } finally {
+            metrics.upserts.record(System.nanoTime() - start);
         }
     }
 
     @Override
     public void remove(@NotNull final ByteBuffer key) throws IOException {
-        memTable.remove(key);
-        if (memTable.sizeInBytes() > flushThreshold) {
-            flush();
+        final long start = System.nanoTime();
+        try {
+            put(key, new Value(MemTable.timestamp()));
+        } finally {
+            metrics.removes.record(System.nanoTime() - start);
+        }
+    }
+
+    private void put(
+            @NotNull final ByteBuffer key,
+            @NotNull final Value value) throws IOException {
+        final WriteBufferManager writeBufferManager = config.writeBufferManager;
+        if (writeBufferManager != null) {
+            writeBufferManager.awaitRoom();
+        }
+        final boolean needsFlush;
+        lock.readLock().lock();
+        try {
+            // The log and the table change together, so a frozen table has exactly the writes of its log
+            final TableSet snapshot = tables;
+            snapshot.wal.append(key, value);
+            final long allocated = snapshot.memTable.put(key, value);
+            if (writeBufferManager != null) {
+                writeBufferManager.reserve(allocated);
+            }
+            needsFlush = snapshot.memTable.sizeInBytes() > config.flushThreshold;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (needsFlush) {
+            scheduleFlush(false);
+        } else if (writeBufferManager != null) {
+            writeBufferManager.maybeFlush();
+        }
+    }
+
+    private void syncLog() {
+        try {
+            tables.wal.sync();
+        } catch (IOException e) {
+            // The log may have been closed by a flush right now
+            logger.debug("Can't sync log", e);
+        }
+    }
+
+    long memTableSize() {
+        return tables.memTable.sizeInBytes();
+    }
+
+    /**
+     * Runs the task on the flusher thread after the flushes scheduled so far, which lets tests hold them back.
+     */
+    @NotNull
+    Future<?> onFlusher(@NotNull final Runnable task) {
+        return flusher.submit(task);
+    }
+
+    /**
+     * Flushes the current {@link MemTable} if {@link WriteBufferManager} still needs it.
+     */
+    void flushMemTable() throws IOException {
+        scheduleFlush(true);
+    }
+
+    /**
+     * Freezes the current {@link MemTable} if it is over the threshold or, when forced, is needed
+     * by {@link WriteBufferManager}.
+     */
+    private void scheduleFlush(final boolean forced) throws IOException {
+        // Back pressure: wait for a free slot before freezing yet another table
+        try {
+            pendingFlushes.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for flush", e);
+        }
+        boolean frozen = false;
+        lock.writeLock().lock();
+        try {
+            // Another writer may have frozen it while we were waiting
+            final boolean needed = forced
+                    ? !closed && tables.memTable.size() > 0 && config.writeBufferManager.needsFlush()
+                    : tables.memTable.sizeInBytes() > config.flushThreshold;
+            if (needed) {
+                freeze();
+                frozen = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+            if (!frozen) {
+                pendingFlushes.release();
+            }
         }
-        if (generation > SSTABLES_LIMIT) {
-            compact();
+    }
+
+    /**
+     * Moves the current {@link MemTable} to the flush queue, must be called under the write lock.
+     */
+    private void freeze() throws IOException {
+        final TableSet snapshot = tables;
+        final int generation = snapshot.generation;
+        final int newGeneration = lastGeneration.incrementAndGet();
+        tables = snapshot.markedForFlush(newGeneration, openLog(newGeneration));
+        if (config.writeBufferManager != null) {
+            config.writeBufferManager.frozen(snapshot.memTable.sizeInBytes());
         }
+        flusher.execute(() -> {
+            try {
+                snapshot.wal.close();
+                flush(generation, snapshot.memTable);
+                scheduleCompaction();
+            } catch (IOException e) {
+                logger.error(String.format("Can't flush table %d", generation), e);
+            } finally {
+                pendingFlushes.release();
+            }
+        });
     }
 
-    private void flush() throws IOException {
-        final File file = fileForGeneration(generation, true);
+    private void flush(
+            final int generation,
+            @NotNull final Table memTable) throws IOException {
+        final long start = System.nanoTime();
+        final SSTable ssTable = write(generation, memTable);
+        metrics.flushed(System.nanoTime() - start, ssTable.sizeInBytes());
+        lock.writeLock().lock();
+        try {
+            tables = tables.flushed(ssTable);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (config.writeBufferManager != null) {
+            config.writeBufferManager.flushed(memTable.sizeInBytes());
+        }
+        // The table is on disk, so its log isn't needed any more
+        Files.delete(logForGeneration(generation).toPath());
+        logger.info(String.format("Table has been flushed %d", generation));
+    }
+
+    @NotNull
+    private SSTable write(
+            final int generation,
+            @NotNull final Table memTable) throws IOException {
+        final File file = fileForGeneration(generation, 0, true);
         SSTable.serialize(
                 file,
-                memTable.iterator(ByteBuffer.allocate(0))
-        );
-        final File dst = fileForGeneration(generation, false);
+                memTable.iterator(ByteBuffer.allocate(0)),
+                config);
+        final File dst = fileForGeneration(generation, 0, false);
         Files.move(file.toPath(), dst.toPath(), StandardCopyOption.ATOMIC_MOVE);
-        memTable = new MemTable();
-        ssTables.put(generation, new SSTable(dst));
-        logger.info(String.format("Table has been flushed %d", generation));
-        generation++;
+        return new SSTable(dst, generation, 0, config);
+    }
+
+    @NotNull
+    private WriteAheadLog openLog(final int generation) throws IOException {
+        return new WriteAheadLog(logForGeneration(generation), config.syncPolicy);
     }
 
     @Override
     public void close() throws IOException {
-        if (memTable.size() > 0) {
-            flush();
+        pendingFlushes.acquireUninterruptibly();
+        boolean frozen = false;
+        lock.writeLock().lock();
+        try {
+            closed = true;
+            if (tables.memTable.size() > 0) {
+                freeze();
+                frozen = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+            if (!frozen) {
+                pendingFlushes.release();
+            }
         }
-        for (final Map.Entry<Integer, Table> entry : ssTables.entrySet()) {
-            entry.getValue().close();
+        if (config.writeBufferManager != null) {
+            config.writeBufferManager.unregister(this);
+        }
+        if (metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (JMException e) {
+                logger.warn(String.format("Can't unregister metrics %s", metricsName), e);
+            }
+        }
+        // Flushes may schedule compactions, so the flusher goes first
+        awaitTermination(syncer);
+        awaitTermination(flusher);
+        awaitTermination(compactor);
+        awaitTermination(compactionPool);
+        // Retry the flushes which have failed in background
+        for (final Map.Entry<Integer, Table> entry : tables.flushing.entrySet()) {
+            flush(entry.getKey(), entry.getValue());
+        }
+        // Everything has been flushed, so the log of the empty table goes away
+        tables.wal.close();
+        Files.delete(logForGeneration(tables.generation).toPath());
+        for (final Table table : tables.ssTables.values()) {
+            table.close();
+        }
+        for (final Table table : retired) {
+            table.close();
         }
     }
 
+    private static void awaitTermination(@NotNull final ExecutorService executor) throws IOException {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                throw new IOException("Background tasks haven't finished in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for background tasks", e);
+        }
+    }
+
+    /**
+     * Performs the major compaction of {@link CompactionStrategy} and waits for it to finish.
+     */
     @Override
     public void compact() throws IOException {
-        final File tempFile = new File(storage, COMPACT);
-        SSTable.serialize(
-                tempFile,
-                cellIterator(ByteBuffer.allocate(0), false)
-        );
-        for (int i = 1; i < generation; i++) {
-            Files.delete(fileForGeneration(i, false).toPath());
+        try {
+            compactor.submit(() -> {
+                final Compaction compaction = config.compactionStrategy.major(tables);
+                if (compaction != null) {
+                    compact(compaction);
+                }
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compacting", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Can't compact", e.getCause());
         }
-        final File dst = fileForGeneration(1, false);
-        Files.move(tempFile.toPath(), dst.toPath(), StandardCopyOption.ATOMIC_MOVE);
-        ssTables.clear();
-        ssTables.put(1, new SSTable(dst));
-        generation = 2;
-        logger.info("Table has been compacted");
     }
 
-    private String nameForGeneration(final int gen, final boolean isTemp) {
-        return storage.toString() + "/" + gen + (isTemp ? TEMP : SUFFIX);
+    private void scheduleCompaction() {
+        if (!compactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        compactor.execute(() -> {
+            compactionScheduled.set(false);
+            try {
+                // One compaction may push the next level over its limit
+                for (Compaction compaction = nextCompaction(); compaction != null; compaction = nextCompaction()) {
+                    compact(compaction);
+                }
+            } catch (IOException e) {
+                logger.error("Can't compact", e);
+            }
+        });
+    }
+
+    /**
+     * Returns the compaction of {@link CompactionStrategy} or, if there is none, of the table with
+     * too many expired tombstones.
+     */
+    @Nullable
+    private Compaction nextCompaction() {
+        final TableSet snapshot = tables;
+        final Compaction compaction = config.compactionStrategy.pick(snapshot);
+        if (compaction != null || config.tombstoneCompactionRatio == 0.0) {
+            return compaction;
+        }
+        return Compaction.ofTombstones(
+                snapshot,
+                config.tombstoneCompactionRatio,
+                tombstonesExpireBefore(),
+                config.compactionStrategy);
+    }
+
+    /**
+     * Returns the timestamp the tombstones older than which may be dropped.
+     */
+    private long tombstonesExpireBefore() {
+        return TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - config.tombstoneGraceMillis);
+    }
+
+    /**
+     * Merges the inputs into the tables of the output level.
+     * Runs on the compactor thread while reads, writes and flushes go on.
+     * Big compactions are split into key ranges merged by {@link #compactionPool} into tables of their own.
+     * When no older table is left out, expired tombstones are dropped as there is nothing for them to shadow.
+     */
+    private void compact(@NotNull final Compaction compaction) throws IOException {
+        final long start = System.nanoTime();
+        final int level = compaction.outputLevel;
+        // Tables are flushed meanwhile, but they are all newer than the inputs
+        final long expireBefore = compaction.isBottommost(tables) ? tombstonesExpireBefore() : Long.MIN_VALUE;
+        // Level zero output takes the place of the newest inputs, the others get new generations
+        final Queue<Integer> reusable = new ConcurrentLinkedQueue<>();
+        for (final SSTable input : compaction.inputs) {
+            reusable.add(input.getGeneration());
+        }
+
+        final List<ByteBuffer> boundaries = compaction.boundaries(config.compactionThreads);
+        final List<Integer> generations = new ArrayList<>();
+        // Every output begun by the ranges, so that none is left behind if the compaction fails
+        final Queue<Integer> started = new ConcurrentLinkedQueue<>();
+        try {
+            if (boundaries.isEmpty()) {
+                generations.addAll(
+                        compactRange(compaction, ByteBuffer.allocate(0), null, expireBefore, reusable, started));
+            } else {
+                final List<ForkJoinTask<List<Integer>>> ranges = new ArrayList<>(boundaries.size() + 1);
+                for (int i = 0; i <= boundaries.size(); i++) {
+                    final ByteBuffer from = i == 0 ? ByteBuffer.allocate(0) : boundaries.get(i - 1);
+                    final ByteBuffer to = i == boundaries.size() ? null : boundaries.get(i);
+                    ranges.add(compactionPool.submit(
+                            () -> compactRange(compaction, from, to, expireBefore, reusable, started)));
+                }
+                // All the ranges must be over before their outputs are cleaned up
+                IOException failure = null;
+                for (final ForkJoinTask<List<Integer>> range : ranges) {
+                    try {
+                        generations.addAll(join(range));
+                    } catch (IOException e) {
+                        if (failure == null) {
+                            failure = e;
+                        } else {
+                            failure.addSuppressed(e);
+                        }
+                    }
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Level zero outputs are named after the inputs, which the next attempt hands out again
+            for (final int generation : started) {
+                try {
+                    Files.deleteIfExists(fileForGeneration(generation, level, true).toPath());
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw e;
+        }
+
+        // The outputs replace the inputs only when all of them are written, and a crash from now on
+        // is recovered by finishing the compaction
+        final CompactionManifest manifest = new CompactionManifest(storage);
+        for (final int generation : generations) {
+            manifest.move(fileForGeneration(generation, level, true), fileForGeneration(generation, level, false));
+        }
+        for (final SSTable input : compaction.inputs) {
+            if (input.getLevel() != level || !generations.contains(input.getGeneration())) {
+                manifest.delete(fileForGeneration(input.getGeneration(), input.getLevel(), false));
+            }
+        }
+        manifest.commit();
+        manifest.moveOutputs();
+
+        final List<SSTable> outputs = new ArrayList<>(generations.size());
+        long written = 0L;
+        for (final int generation : generations) {
+            final SSTable output = new SSTable(fileForGeneration(generation, level, false), generation, level, config);
+            written += output.sizeInBytes();
+            outputs.add(output);
+        }
+        lock.writeLock().lock();
+        try {
+            tables = tables.compacted(compaction.inputs, outputs);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        // Older versions are shadowed by the compacted tables already, so it's safe to remove them now
+        manifest.deleteInputs();
+        retired.addAll(compaction.inputs);
+        metrics.compacted(System.nanoTime() - start, written);
+        logger.info(String.format("%d tables have been compacted into %d tables of level %d in %d ranges",
+                compaction.inputs.size(), outputs.size(), level, boundaries.size() + 1));
+    }
+
+    /**
+     * Merges the cells of the inputs from the inclusive key up to the exclusive one into temporary tables.
+     *
+     * @param to {@code null} for the rest of the keys
+     * @param expireBefore tombstones older than this timestamp are dropped
+     * @param started where the generation of every table is added before it is written
+     * @return the generations of the written tables
+     */
+    @NotNull
+    private List<Integer> compactRange(
+            @NotNull final Compaction compaction,
+            @NotNull final ByteBuffer from,
+            @Nullable final ByteBuffer to,
+            final long expireBefore,
+            @NotNull final Queue<Integer> reusable,
+            @NotNull final Queue<Integer> started) throws IOException {
+        final int level = compaction.outputLevel;
+        final Iterator<Cell> merged = until(throttled(cellIterator(from, compaction.inputs, false, null)), to);
+        final Iterator<Cell> cells = Iterators.filter(
+                merged,
+                cell -> !cell.getValue().isTombstone() || cell.getValue().getTimestamp() >= expireBefore);
+        final List<Integer> generations = new ArrayList<>();
+        while (cells.hasNext()) {
+            final Integer generation = level == 0 ? reusable.poll() : Integer.valueOf(lastGeneration.incrementAndGet());
+            if (generation == null) {
+                throw new IOException("No generation left for level zero output");
+            }
+            started.add(generation);
+            SSTable.serialize(
+                    fileForGeneration(generation, level, true),
+                    limited(cells, compaction.maxOutputBytes),
+                    config);
+            generations.add(generation);
+        }
+        return generations;
+    }
+
+    @NotNull
+    private static <T> T join(@NotNull final ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compacting", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException("Can't compact key range", e.getCause());
+        }
+    }
+
+    /**
+     * Stops after the cell which crosses the size limit.
+     */
+    @NotNull
+    private static Iterator<Cell> limited(
+            @NotNull final Iterator<Cell> cells,
+            final long maxBytes) {
+        return new Iterator<>() {
+            private long bytes;
+
+            @Override
+            public boolean hasNext() {
+                return bytes < maxBytes && cells.hasNext();
+            }
+
+            @Override
+            public Cell next() {
+                final Cell cell = cells.next();
+                bytes += sizeInBytes(cell);
+                return cell;
+            }
+        };
+    }
+
+    private static int sizeInBytes(@NotNull final Cell cell) {
+        return Integer.BYTES * 2 + cell.getKey().remaining() + (int) cell.getValue().sizeInBytes();
+    }
+
+    @NotNull
+    private Iterator<Cell> throttled(@NotNull final Iterator<Cell> cells) {
+        final RateLimiter limiter = compactionLimiter;
+        if (limiter == null) {
+            return cells;
+        }
+        return Iterators.transform(cells, cell -> {
+            limiter.acquire(sizeInBytes(cell));
+            return cell;
+        });
+    }
+
+    private String nameForGeneration(final int gen, final int level, final boolean isTemp) {
+        return storage.toString() + "/" + gen + (level == 0 ? "" : LEVEL_SEPARATOR + String.valueOf(level))
+                + (isTemp ? TEMP : SUFFIX);
+    }
+
+    private File fileForGeneration(final int gen, final int level, final boolean isTemp) {
+        return new File(nameForGeneration(gen, level, isTemp));
     }
 
-    private File fileForGeneration(final int gen, final boolean isTemp) {
-        return new File(nameForGeneration(gen, isTemp));
+    private File logForGeneration(final int gen) {
+        return new File(storage, gen + LOG);
     }
 }
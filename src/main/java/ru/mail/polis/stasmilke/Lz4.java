@@ -0,0 +1,153 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Pure Java codec of the LZ4 block format: a sequence of
+ * {@code [token][literal length][literals][match offset][match length]}, where the token holds the lower
+ * bits of both lengths and the last sequence has literals only.
+ * The compressor is greedy with a single hash table probe, which is what makes LZ4 fast.
+ */
+final class Lz4 {
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_LOG = 12;
+    private static final int RUN_MASK = 0x0F;
+
+    private Lz4() {
+        // Not instantiable
+    }
+
+    /**
+     * Compresses the remaining bytes of the source into the destination.
+     *
+     * @return whether the compressed bytes have fit into the destination
+     */
+    static boolean compress(
+            @NotNull final ByteBuffer src,
+            @NotNull final ByteBuffer dst) {
+        final int start = src.position();
+        final int end = src.limit();
+        final int matchLimit = end - LAST_LITERALS;
+        final int findLimit = end - MATCH_FIND_LIMIT;
+        final int[] table = new int[1 << HASH_LOG];
+        Arrays.fill(table, -1);
+        try {
+            int anchor = start;
+            int current = start;
+            while (current < findLimit) {
+                final int sequence = src.getInt(current);
+                final int hash = (sequence * -1640531535) >>> (Integer.SIZE - HASH_LOG);
+                final int reference = table[hash];
+                table[hash] = current;
+                if (reference < 0 || current - reference > MAX_OFFSET || src.getInt(reference) != sequence) {
+                    current++;
+                    continue;
+                }
+                int matchLength = MIN_MATCH;
+                while (current + matchLength < matchLimit
+                        && src.get(reference + matchLength) == src.get(current + matchLength)) {
+                    matchLength++;
+                }
+                final int literals = current - anchor;
+                final int matchCode = matchLength - MIN_MATCH;
+                dst.put((byte) (Math.min(literals, RUN_MASK) << 4 | Math.min(matchCode, RUN_MASK)));
+                putLiterals(src, anchor, literals, dst);
+                dst.put((byte) (current - reference));
+                dst.put((byte) ((current - reference) >>> 8));
+                if (matchCode >= RUN_MASK) {
+                    putLength(dst, matchCode - RUN_MASK);
+                }
+                current += matchLength;
+                anchor = current;
+            }
+            final int literals = end - anchor;
+            dst.put((byte) (Math.min(literals, RUN_MASK) << 4));
+            putLiterals(src, anchor, literals, dst);
+            return true;
+        } catch (BufferOverflowException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Decompresses the remaining bytes of the source filling the destination up to its limit.
+     */
+    static void decompress(
+            @NotNull final ByteBuffer src,
+            @NotNull final ByteBuffer dst) throws IOException {
+        try {
+            while (src.hasRemaining()) {
+                final int token = src.get() & 0xFF;
+                int literals = token >>> 4;
+                if (literals == RUN_MASK) {
+                    literals += getLength(src);
+                }
+                dst.put(Bytes.slice(src, src.position(), literals));
+                src.position(src.position() + literals);
+                if (!src.hasRemaining()) {
+                    break;
+                }
+                final int offset = (src.get() & 0xFF) | (src.get() & 0xFF) << 8;
+                int matchLength = token & RUN_MASK;
+                if (matchLength == RUN_MASK) {
+                    matchLength += getLength(src);
+                }
+                matchLength += MIN_MATCH;
+                final int from = dst.position() - offset;
+                if (offset == 0 || from < 0) {
+                    throw new IOException("Malformed LZ4 offset " + offset);
+                }
+                // Byte by byte, since the match may overlap the bytes it produces
+                for (int i = 0; i < matchLength; i++) {
+                    dst.put(dst.get(from + i));
+                }
+            }
+        } catch (BufferOverflowException | BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Malformed LZ4 block", e);
+        }
+        if (dst.hasRemaining()) {
+            throw new IOException("Truncated LZ4 block");
+        }
+    }
+
+    private static void putLiterals(
+            @NotNull final ByteBuffer src,
+            final int offset,
+            final int length,
+            @NotNull final ByteBuffer dst) {
+        if (length >= RUN_MASK) {
+            putLength(dst, length - RUN_MASK);
+        }
+        dst.put(Bytes.slice(src, offset, length));
+    }
+
+    private static void putLength(
+            @NotNull final ByteBuffer dst,
+            final int length) {
+        int rest = length;
+        while (rest >= 0xFF) {
+            dst.put((byte) 0xFF);
+            rest -= 0xFF;
+        }
+        dst.put((byte) rest);
+    }
+
+    private static int getLength(@NotNull final ByteBuffer src) {
+        int result = 0;
+        int current;
+        do {
+            current = src.get() & 0xFF;
+            result += current;
+        } while (current == 0xFF);
+        return result;
+    }
+}
@@ -0,0 +1,59 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link TableFile} backed by a read-only mapping of the whole file.
+ * The mapping stays valid after the channel is closed, so no descriptor is held.
+ */
+final class MappedTableFile implements TableFile {
+    @NotNull
+    private final ByteBuffer mapped;
+
+    MappedTableFile(@NotNull final File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    @Override
+    public long size() {
+        return mapped.limit();
+    }
+
+    @Override
+    public int getInt(final long offset) {
+        return mapped.getInt((int) offset);
+    }
+
+    @Override
+    public long getLong(final long offset) {
+        return mapped.getLong((int) offset);
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer slice(final long offset, final int length) {
+        return Bytes.slice(mapped, (int) offset, length);
+    }
+
+    @Override
+    public int compare(
+            @NotNull final ByteBuffer key,
+            final long offset,
+            final int length) {
+        // In place, no slices on the hot path
+        return Bytes.compare(key, mapped, (int) offset, length);
+    }
+
+    @Override
+    public void close() {
+        // Unmapped by GC once all the slices are gone
+    }
+}
@@ -1,59 +1,257 @@
 package ru.mail.polis.stasmilke;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Iterator;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Skip list which keeps both its nodes and the cells off heap in an {@link Arena}, so its size is
+ * the memory it really takes and the garbage collector never sees the cells.
+ *
+ * <p>A node is {@code [height][key length][value length, -1 for tombstone][timestamp][next nodes][key][value]}.
+ * Nodes are never updated: a new version of a key is inserted in front of the older ones,
+ * which are skipped by readers and dropped by the flush.
+ * Writers are serialized, while readers take no locks and follow the links published with release semantics.
+ */
 final class MemTable implements Table {
-    private final SortedMap<ByteBuffer, Value> sortedMap = new TreeMap<>();
-    private long sizeInBytes;
+    private static final AtomicLong LAST_TIMESTAMP = new AtomicLong();
+    private static final VarHandle LINK = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final int MAX_HEIGHT = 12;
+    private static final int HEIGHT = 0;
+    private static final int KEY_LENGTH = HEIGHT + Integer.BYTES;
+    private static final int VALUE_LENGTH = KEY_LENGTH + Integer.BYTES;
+    private static final int TIMESTAMP = VALUE_LENGTH + Integer.BYTES + Integer.BYTES;
+    private static final int LINKS = TIMESTAMP + Long.BYTES;
+
+    private static final int HEAD = LINKS + Long.BYTES * MAX_HEIGHT;
+
+    /**
+     * The head takes the first slab alone, so the slabs of the nodes are all counted in {@link #sizeInBytes}.
+     */
+    private final Arena arena = new Arena(HEAD);
+    private final long head = arena.allocate(HEAD);
+    /**
+     * Predecessors of the inserted node at every level, reused by the writers.
+     */
+    private final long[] previous = new long[MAX_HEIGHT];
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong sizeInBytes = new AtomicLong();
+
+    MemTable() {
+        arena.slab(head).putInt(Arena.offset(head) + HEIGHT, MAX_HEIGHT);
+    }
 
     @NotNull
     @Override
     public Iterator<Cell> iterator(@NotNull final ByteBuffer from) throws IOException {
-        return sortedMap.tailMap(from)
-                .entrySet()
-                .stream()
-                .map(x -> new Cell(x.getKey(), x.getValue()))
-                .iterator();
+        final long first = next(seek(from), 0);
+        return new Iterator<>() {
+            private long node = first;
+
+            @Override
+            public boolean hasNext() {
+                return node != Arena.NIL;
+            }
+
+            @Override
+            public Cell next() {
+                if (node == Arena.NIL) {
+                    throw new NoSuchElementException();
+                }
+                final ByteBuffer key = key(node);
+                final Cell cell = new Cell(key, value(node));
+                // Older versions of the key follow the newest one
+                do {
+                    node = MemTable.this.next(node, 0);
+                } while (node != Arena.NIL && compare(key, node) == 0);
+                return cell;
+            }
+        };
+    }
+
+    @Nullable
+    @Override
+    public Value get(@NotNull final ByteBuffer key) {
+        final long node = next(seek(key), 0);
+        return node != Arena.NIL && compare(key, node) == 0 ? value(node) : null;
     }
 
     @Override
     public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) throws IOException {
-        final Value oldValue = sortedMap.get(key);
-        final Value newValue = new Value(value, System.currentTimeMillis());
-        if (oldValue == null) {
-            sizeInBytes += key.remaining();
-        } else {
-            sizeInBytes -= oldValue.sizeInBytes();
-        }
-        sizeInBytes += newValue.sizeInBytes();
-        sortedMap.put(key, newValue);
+        put(key, new Value(value, timestamp()));
     }
 
     @Override
     public void remove(@NotNull final ByteBuffer key) throws IOException {
-        final Value oldValue = sortedMap.get(key);
-        final Value newValue = new Value(System.currentTimeMillis());
-        if (oldValue != null) {
-            sizeInBytes -= oldValue.sizeInBytes();
+        put(key, new Value(timestamp()));
+    }
+
+    /**
+     * Inserts the new version of the key.
+     *
+     * @return how much the table has grown by
+     */
+    synchronized long put(@NotNull final ByteBuffer key, @NotNull final Value newValue) {
+        final int height = randomHeight();
+        final int keyLength = key.remaining();
+        final int valueLength = newValue.isTombstone() ? -1 : newValue.getData().remaining();
+        final int linksEnd = LINKS + Long.BYTES * height;
+        final long used = arena.sizeInBytes();
+        final long node = arena.allocate(linksEnd + keyLength + Math.max(valueLength, 0));
+        final long allocated = arena.sizeInBytes() - used;
+
+        final ByteBuffer slab = arena.slab(node);
+        final int offset = Arena.offset(node);
+        slab.putInt(offset + HEIGHT, height);
+        slab.putInt(offset + KEY_LENGTH, keyLength);
+        slab.putInt(offset + VALUE_LENGTH, valueLength);
+        slab.putLong(offset + TIMESTAMP, newValue.getTimestamp());
+        final ByteBuffer cell = slab.duplicate().position(offset + linksEnd);
+        cell.put(key.duplicate());
+        if (valueLength > 0) {
+            cell.put(newValue.getData());
+        }
+
+        // Newer versions go before the older ones of the same key
+        long current = head;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            long next = next(current, level);
+            while (next != Arena.NIL && precedes(next, key, newValue.getTimestamp())) {
+                current = next;
+                next = next(current, level);
+            }
+            previous[level] = current;
+        }
+        // The node is linked bottom up, so a reader which sees it at some level sees it below as well
+        for (int level = 0; level < height; level++) {
+            slab.putLong(offset + LINKS + Long.BYTES * level, next(previous[level], level));
+            link(previous[level], level, node);
         }
-        sizeInBytes += newValue.sizeInBytes();
-        sortedMap.put(key, newValue);
+        size.incrementAndGet();
+        sizeInBytes.addAndGet(allocated);
+        return allocated;
+    }
+
+    /**
+     * Returns the last node whose key is less than the given one, possibly the head.
+     */
+    private long seek(@NotNull final ByteBuffer key) {
+        long current = head;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            long next = next(current, level);
+            while (next != Arena.NIL && compare(key, next) > 0) {
+                current = next;
+                next = next(current, level);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Whether the node goes before the version of the key with the timestamp.
+     */
+    private boolean precedes(
+            final long node,
+            @NotNull final ByteBuffer key,
+            final long timestamp) {
+        final int comp = compare(key, node);
+        return comp > 0 || comp == 0 && timestamp(node) >= timestamp;
+    }
+
+    private long next(
+            final long node,
+            final int level) {
+        return (long) LINK.getAcquire(arena.slab(node), Arena.offset(node) + LINKS + Long.BYTES * level);
+    }
+
+    private void link(
+            final long node,
+            final int level,
+            final long next) {
+        LINK.setRelease(arena.slab(node), Arena.offset(node) + LINKS + Long.BYTES * level, next);
+    }
+
+    private int compare(
+            @NotNull final ByteBuffer key,
+            final long node) {
+        final ByteBuffer slab = arena.slab(node);
+        final int offset = Arena.offset(node);
+        return Bytes.compare(key, slab, keyOffset(slab, offset), slab.getInt(offset + KEY_LENGTH));
+    }
+
+    private long timestamp(final long node) {
+        return arena.slab(node).getLong(Arena.offset(node) + TIMESTAMP);
+    }
+
+    @NotNull
+    private ByteBuffer key(final long node) {
+        final ByteBuffer slab = arena.slab(node);
+        final int offset = Arena.offset(node);
+        return Bytes.slice(slab, keyOffset(slab, offset), slab.getInt(offset + KEY_LENGTH)).asReadOnlyBuffer();
+    }
+
+    @NotNull
+    private Value value(final long node) {
+        final ByteBuffer slab = arena.slab(node);
+        final int offset = Arena.offset(node);
+        final long timestamp = slab.getLong(offset + TIMESTAMP);
+        final int valueLength = slab.getInt(offset + VALUE_LENGTH);
+        if (valueLength < 0) {
+            return new Value(timestamp);
+        }
+        final int valueOffset = keyOffset(slab, offset) + slab.getInt(offset + KEY_LENGTH);
+        return new Value(Bytes.slice(slab, valueOffset, valueLength).asReadOnlyBuffer(), timestamp);
+    }
+
+    private static int keyOffset(
+            @NotNull final ByteBuffer slab,
+            final int offset) {
+        return offset + LINKS + Long.BYTES * slab.getInt(offset + HEIGHT);
+    }
+
+    private static int randomHeight() {
+        int height = 1;
+        // Every level holds a quarter of the nodes of the level below
+        while (height < MAX_HEIGHT && ThreadLocalRandom.current().nextInt(4) == 0) {
+            height++;
+        }
+        return height;
+    }
+
+    /**
+     * Returns wall clock nanoseconds which never repeat, so that the latest of two writes
+     * within the same millisecond still wins when they end up in different tables.
+     */
+    static long timestamp() {
+        final long now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        return LAST_TIMESTAMP.accumulateAndGet(now, (last, wall) -> Math.max(last + 1, wall));
     }
 
+    /**
+     * Returns the number of versions, so it may exceed the number of keys.
+     */
     @Override
     public int size() {
-        return sortedMap.size();
+        return size.get();
     }
 
+    /**
+     * Returns the memory of the slabs taken by the nodes including their free space, an empty table takes nothing.
+     */
     @Override
     public long sizeInBytes() {
-        return sizeInBytes;
+        return sizeInBytes.get();
     }
 
     @Override
@@ -0,0 +1,162 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Merges sorted {@link Cell} iterators into the freshest cell per key with a loser tree,
+ * which takes {@code log(sources)} key comparisons per cell and allocates nothing per cell.
+ *
+ * <p>Sources come in priority order, so of equal keys the one of the first source wins
+ * and the others are skipped without looking at the timestamps.
+ */
+final class MergeIterator implements Iterator<Cell> {
+    @NotNull
+    private final List<Iterator<Cell>> sources;
+    /**
+     * Current cell of every source, {@code null} once the source is over.
+     */
+    @NotNull
+    private final Cell[] heads;
+    /**
+     * Index of the winning source at zero, the sources which have lost at the inner nodes after it.
+     * Node {@code n} has children {@code 2n} and {@code 2n + 1}, source {@code s} is the leaf {@code s + size}.
+     */
+    @NotNull
+    private final int[] tree;
+    private final boolean skipTombstones;
+    @Nullable
+    private final LongAdder skippedTombstones;
+    @Nullable
+    private final Trace trace;
+    @Nullable
+    private Cell next;
+
+    /**
+     * Merges the sources ordered from the newest to the oldest.
+     *
+     * @param skipTombstones whether the keys removed in the freshest source are left out
+     * @param skippedTombstones counts the keys left out, if given
+     * @param trace records the dropped versions and the keys left out, if given
+     */
+    MergeIterator(
+            @NotNull final List<Iterator<Cell>> sources,
+            final boolean skipTombstones,
+            @Nullable final LongAdder skippedTombstones,
+            @Nullable final Trace trace) {
+        this.sources = new ArrayList<>(sources);
+        this.heads = new Cell[sources.size()];
+        this.tree = new int[Math.max(1, sources.size())];
+        this.skipTombstones = skipTombstones;
+        this.skippedTombstones = skippedTombstones;
+        this.trace = trace;
+        for (int i = 0; i < heads.length; i++) {
+            final Iterator<Cell> source = sources.get(i);
+            heads[i] = source.hasNext() ? source.next() : null;
+        }
+        if (heads.length > 0) {
+            tree[0] = play(1);
+            advance();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public Cell next() {
+        final Cell result = next;
+        if (result == null) {
+            throw new NoSuchElementException();
+        }
+        advance();
+        return result;
+    }
+
+    /**
+     * Finds the next cell to return dropping the older versions of its key.
+     */
+    private void advance() {
+        while (true) {
+            final Cell winner = heads[tree[0]];
+            if (winner == null) {
+                next = null;
+                return;
+            }
+            pop(tree[0]);
+            while (heads[tree[0]] != null && heads[tree[0]].compareKeyTo(winner) == 0) {
+                if (trace != null) {
+                    trace.shadowed();
+                }
+                pop(tree[0]);
+            }
+            if (!skipTombstones || !winner.getValue().isTombstone()) {
+                next = winner;
+                return;
+            }
+            if (skippedTombstones != null) {
+                skippedTombstones.increment();
+            }
+            if (trace != null) {
+                trace.tombstone();
+            }
+        }
+    }
+
+    /**
+     * Replaces the head of the source with its next cell and replays the matches up to the root.
+     */
+    private void pop(final int source) {
+        final Iterator<Cell> cells = sources.get(source);
+        heads[source] = cells.hasNext() ? cells.next() : null;
+        int winner = source;
+        for (int node = (source + heads.length) / 2; node > 0; node /= 2) {
+            if (wins(tree[node], winner)) {
+                final int loser = winner;
+                winner = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = winner;
+    }
+
+    /**
+     * Plays the matches of the subtree storing the losers and returns the winner.
+     */
+    private int play(final int node) {
+        if (node >= heads.length) {
+            return node - heads.length;
+        }
+        final int left = play(node * 2);
+        final int right = play(node * 2 + 1);
+        if (wins(left, right)) {
+            tree[node] = right;
+            return left;
+        }
+        tree[node] = left;
+        return right;
+    }
+
+    /**
+     * Whether the first source goes before the second one, sources which are over go last.
+     */
+    private boolean wins(
+            final int first,
+            final int second) {
+        final Cell firstHead = heads[first];
+        final Cell secondHead = heads[second];
+        if (firstHead == null || secondHead == null) {
+            return secondHead == null && (firstHead != null || first < second);
+        }
+        final int comp = firstHead.compareKeyTo(secondHead);
+        return comp < 0 || comp == 0 && first < second;
+    }
+}
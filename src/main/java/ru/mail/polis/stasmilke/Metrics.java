@@ -0,0 +1,140 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Counters of {@link LsmDAO}, readable directly or through JMX.
+ * Operations record into {@link LongAdder}s, so the hot path doesn't contend on them.
+ */
+public final class Metrics implements MetricsMXBean {
+    private final long startNanos = System.nanoTime();
+    @NotNull
+    private final Supplier<TableSet> tables;
+
+    final Latencies gets = new Latencies();
+    final Latencies upserts = new Latencies();
+    final Latencies removes = new Latencies();
+    final Latencies ranges = new Latencies();
+    final LongAdder tablesProbed = new LongAdder();
+    final LongAdder scannedTombstones = new LongAdder();
+
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushNanos = new LongAdder();
+    private final LongAdder flushedBytes = new LongAdder();
+    private final LongAdder compactions = new LongAdder();
+    private final LongAdder compactionNanos = new LongAdder();
+    private final LongAdder compactedBytes = new LongAdder();
+
+    Metrics(@NotNull final Supplier<TableSet> tables) {
+        this.tables = tables;
+    }
+
+    void flushed(
+            final long nanos,
+            final long bytes) {
+        flushes.increment();
+        flushNanos.add(nanos);
+        flushedBytes.add(bytes);
+    }
+
+    void compacted(
+            final long nanos,
+            final long bytes) {
+        compactions.increment();
+        compactionNanos.add(nanos);
+        compactedBytes.add(bytes);
+    }
+
+    @Override
+    public OperationMetrics getGets() {
+        return gets.snapshot(seconds());
+    }
+
+    @Override
+    public OperationMetrics getUpserts() {
+        return upserts.snapshot(seconds());
+    }
+
+    @Override
+    public OperationMetrics getRemoves() {
+        return removes.snapshot(seconds());
+    }
+
+    @Override
+    public OperationMetrics getRanges() {
+        return ranges.snapshot(seconds());
+    }
+
+    @Override
+    public long getMemTableBytes() {
+        final TableSet snapshot = tables.get();
+        long result = snapshot.memTable.sizeInBytes();
+        for (final Table table : snapshot.flushing.values()) {
+            result += ((MemTable) table).sizeInBytes();
+        }
+        return result;
+    }
+
+    @Override
+    public int getSsTableCount() {
+        return tables.get().ssTables.size();
+    }
+
+    @Override
+    public long getSsTableBytes() {
+        long result = 0L;
+        for (final SSTable ssTable : tables.get().ssTables.values()) {
+            result += ssTable.sizeInBytes();
+        }
+        return result;
+    }
+
+    @Override
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    @Override
+    public long getFlushMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(flushNanos.sum());
+    }
+
+    @Override
+    public long getFlushedBytes() {
+        return flushedBytes.sum();
+    }
+
+    @Override
+    public long getCompactions() {
+        return compactions.sum();
+    }
+
+    @Override
+    public long getCompactionMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(compactionNanos.sum());
+    }
+
+    @Override
+    public long getCompactedBytes() {
+        return compactedBytes.sum();
+    }
+
+    @Override
+    public double getTablesProbedPerGet() {
+        final long count = gets.count();
+        return count == 0L ? 0.0 : (double) tablesProbed.sum() / count;
+    }
+
+    @Override
+    public long getScannedTombstones() {
+        return scannedTombstones.sum();
+    }
+
+    private double seconds() {
+        return (System.nanoTime() - startNanos) / 1e9;
+    }
+}
@@ -0,0 +1,49 @@
+package ru.mail.polis.stasmilke;
+
+/**
+ * Metrics of {@link LsmDAO} as exported through JMX, see {@link Config.Builder#metricsName}.
+ */
+public interface MetricsMXBean {
+    OperationMetrics getGets();
+
+    OperationMetrics getUpserts();
+
+    OperationMetrics getRemoves();
+
+    /**
+     * Returns the metrics of opening range iterators, which includes seeking but not iterating.
+     */
+    OperationMetrics getRanges();
+
+    /**
+     * Returns the size of the memtables including the ones being flushed.
+     */
+    long getMemTableBytes();
+
+    int getSsTableCount();
+
+    long getSsTableBytes();
+
+    long getFlushes();
+
+    long getFlushMillis();
+
+    long getFlushedBytes();
+
+    long getCompactions();
+
+    long getCompactionMillis();
+
+    long getCompactedBytes();
+
+    /**
+     * Returns the read amplification: how many {@link SSTable}s a lookup reads on average
+     * after their filters have ruled the others out.
+     */
+    double getTablesProbedPerGet();
+
+    /**
+     * Returns how many removed keys range iterators have skipped.
+     */
+    long getScannedTombstones();
+}
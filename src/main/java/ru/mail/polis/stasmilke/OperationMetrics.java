@@ -0,0 +1,69 @@
+package ru.mail.polis.stasmilke;
+
+/**
+ * Snapshot of the count and the latencies of one kind of {@link LsmDAO} operations.
+ */
+public final class OperationMetrics {
+    private final long count;
+    private final double meanRate;
+    private final double meanMicros;
+    private final long p50Micros;
+    private final long p99Micros;
+    private final long p999Micros;
+    private final long maxMicros;
+
+    OperationMetrics(
+            final long count,
+            final double meanRate,
+            final double meanMicros,
+            final long p50Micros,
+            final long p99Micros,
+            final long p999Micros,
+            final long maxMicros) {
+        this.count = count;
+        this.meanRate = meanRate;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p99Micros = p99Micros;
+        this.p999Micros = p999Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns operations per second since {@link LsmDAO} has been opened.
+     * Recent rates are derived by monitoring from the changes of {@link #getCount}.
+     */
+    public double getMeanRate() {
+        return meanRate;
+    }
+
+    public double getMeanMicros() {
+        return meanMicros;
+    }
+
+    public long getP50Micros() {
+        return p50Micros;
+    }
+
+    public long getP99Micros() {
+        return p99Micros;
+    }
+
+    public long getP999Micros() {
+        return p999Micros;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count %d, %.1f ops/s, mean %.1f us, p50 %d us, p99 %d us, p99.9 %d us, max %d us",
+                count, meanRate, meanMicros, p50Micros, p99Micros, p999Micros, maxMicros);
+    }
+}
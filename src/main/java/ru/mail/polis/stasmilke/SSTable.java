@@ -1,29 +1,226 @@
 package ru.mail.polis.stasmilke;
 
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Immutable sorted table on disk.
+ *
+ * <p>The cells are grouped into {@link Block}s of about {@link Config.Builder#blockSize} bytes stored by
+ * {@link BlockCodec}, followed by the sparse index of {@code [block offset][key length][key]} per block,
+ * the Bloom filter, {@code [tombstones][newest tombstone timestamp]}, so that tables full of expired tombstones
+ * are found without reading them, the base timestamp of the table, which is the timestamp of the first cell,
+ * and the footer {@code [index offset][filter offset][hashes][blocks][rows][version][magic]}.
+ * The index is kept in memory, so a lookup reads a single block. The key of the first block is the first key
+ * of the table, the others are the shortest separators from the previous block, so huge keys don't bloat the index.
+ *
+ * <p>Tables of version 0 are still readable: their cells are followed by the offsets of all the rows
+ * but the first one and the number of rows, and they have no filter.
+ */
 final class SSTable implements Table {
+    /**
+     * Newest tables come first: upper levels before lower ones, then younger generations before older ones.
+     * Tables of the same level below zero never overlap, so their order doesn't matter.
+     */
+    static final Comparator<SSTable> NEWEST_FIRST =
+            Comparator.comparingInt(SSTable::getLevel)
+                    .thenComparing(Comparator.comparingInt(SSTable::getGeneration).reversed());
 
-    private static final String HEADER_TEMP = "header.tmp";
+    /**
+     * Suffix of the file the hashes of a table being written are spilled to.
+     */
+    static final String HASHES_TEMP = "hashes.tmp";
+    private static final long MAGIC = 0x4C534D5441424C45L;
+    /**
+     * Version of the tables with blocks, the versions in between have never been released.
+     */
+    private static final int BLOCKS = 6;
+    private static final int FOOTER = Long.BYTES * 2 + Integer.BYTES * 4 + Long.BYTES;
+
+    /**
+     * Tables are written by chunks of this size.
+     */
+    private static final int WRITE_BUFFER = 1024 * 1024;
+    private static final int HASHES_BUFFER = 64 * 1024;
+
+    /**
+     * Tables without blocks are sampled by this many bytes as if they had blocks.
+     */
+    private static final long ROWS_SAMPLE_BYTES = 4 * 1024;
+
+    private static final AtomicLong LAST_ID = new AtomicLong();
+
+    /**
+     * Identity in {@link BlockCache}, generations are reused by compaction.
+     */
+    private final long id = LAST_ID.incrementAndGet();
     @NotNull
-    private final FileChannel channel;
+    private final TableFile file;
+    @Nullable
+    private final BlockCache blockCache;
     private final int size;
+    /**
+     * Where the offsets of rows end in tables without blocks.
+     */
+    private final long offsetsEnd;
+    /**
+     * Where the data blocks end, {@code null} for tables without blocks.
+     */
+    @Nullable
+    private final long[] blockOffsets;
+    @Nullable
+    private final ByteBuffer[] blockKeys;
+    private final long blocksEnd;
+    private final long baseTimestamp;
+    /**
+     * Number of tombstones, zero for tables without blocks.
+     */
+    private final int tombstones;
+    private final long newestTombstone;
+    @Nullable
+    private final BloomFilter bloomFilter;
+    private final int generation;
+    private final int level;
+    @NotNull
+    private final ByteBuffer firstKey;
+    @NotNull
+    private final ByteBuffer lastKey;
+
+    SSTable(
+            @NotNull final File file,
+            final int generation,
+            final int level,
+            @NotNull final Config config) throws IOException {
+        this.file = TableFile.open(file, config.mappedReads);
+        this.blockCache = config.blockCache;
+        this.generation = generation;
+        this.level = level;
+        final long fileSize = this.file.size();
+        final int version = fileSize >= FOOTER && this.file.getLong(fileSize - Long.BYTES) == MAGIC
+                ? this.file.getInt(fileSize - Long.BYTES - Integer.BYTES)
+                : 0;
+        if (version == BLOCKS) {
+            final long footer = fileSize - FOOTER;
+            // The base timestamp precedes the footer, the tombstone stats precede it, the filter ends before them
+            final long timestampOffset = footer - Long.BYTES;
+            final long filterEnd = timestampOffset - Integer.BYTES - Long.BYTES;
+            baseTimestamp = this.file.getLong(timestampOffset);
+            tombstones = this.file.getInt(filterEnd);
+            newestTombstone = this.file.getLong(filterEnd + Integer.BYTES);
+            blocksEnd = this.file.getLong(footer);
+            final long bloomOffset = this.file.getLong(footer + Long.BYTES);
+            final int hashes = this.file.getInt(footer + Long.BYTES * 2);
+            final int blocks = this.file.getInt(footer + Long.BYTES * 2 + Integer.BYTES);
+            size = this.file.getInt(footer + Long.BYTES * 2 + Integer.BYTES * 2);
+            bloomFilter = new BloomFilter(
+                    this.file.slice(bloomOffset, Math.toIntExact(filterEnd - bloomOffset)).asLongBuffer(),
+                    hashes);
+
+            // The sparse index lives in memory as long as the table is open
+            final ByteBuffer index = this.file.slice(blocksEnd, Math.toIntExact(bloomOffset - blocksEnd));
+            blockOffsets = new long[blocks];
+            blockKeys = new ByteBuffer[blocks];
+            for (int i = 0; i < blocks; i++) {
+                blockOffsets[i] = index.getLong();
+                final int keySize = index.getInt();
+                blockKeys[i] = Bytes.slice(index, index.position(), keySize);
+                index.position(index.position() + keySize);
+            }
+            offsetsEnd = blocksEnd;
+            if (size == 0 || blocks == 0) {
+                throw new IOException("Empty table " + file);
+            }
+            firstKey = blockKeys[0];
+            lastKey = block(blocks - 1, null).lastKey();
+            return;
+        }
+        if (version != 0) {
+            throw new IOException("Unsupported version " + version + " of table " + file);
+        }
+
+        baseTimestamp = 0L;
+        tombstones = 0;
+        newestTombstone = 0L;
+        blockOffsets = null;
+        blockKeys = null;
+        bloomFilter = null;
+        size = this.file.getInt(fileSize - Integer.BYTES);
+        offsetsEnd = fileSize - Integer.BYTES;
+        blocksEnd = offsetsEnd;
+        if (size == 0) {
+            throw new IOException("Empty table " + file);
+        }
+        firstKey = key(offsetForRow(0));
+        lastKey = key(offsetForRow(size - 1));
+    }
 
-    private final ByteBuffer intBuffer = ByteBuffer.allocate(Integer.BYTES);
-    private final ByteBuffer longBuffer = ByteBuffer.allocate(Long.BYTES);
+    @NotNull
+    private Block block(
+            final int block,
+            @Nullable final Trace.TableTrace trace) throws IOException {
+        assert blockOffsets != null;
+        final long begin = blockOffsets[block];
+        final long end = block + 1 < blockOffsets.length ? blockOffsets[block + 1] : blocksEnd;
+        if (blockCache == null) {
+            if (trace != null) {
+                trace.blockRead(end - begin, false);
+            }
+            return new Block(read(begin, end), baseTimestamp);
+        }
+        final ByteBuffer cached = blockCache.get(id, begin);
+        if (trace != null) {
+            trace.blockRead(end - begin, cached != null);
+        }
+        if (cached != null) {
+            return new Block(cached, baseTimestamp);
+        }
+        return new Block(blockCache.put(id, begin, read(begin, end)), baseTimestamp);
+    }
+
+    @NotNull
+    private ByteBuffer read(
+            final long begin,
+            final long end) throws IOException {
+        return BlockCodec.decode(file.slice(begin, (int) (end - begin)));
+    }
 
-    SSTable(@NotNull final File file) throws IOException {
-        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
-        channel.read(intBuffer.rewind(), channel.size() - Integer.BYTES);
-        size = intBuffer.rewind().getInt();
+    /**
+     * Returns the last block which may contain the key.
+     */
+    private int blockFor(
+            @NotNull final ByteBuffer key,
+            @Nullable final Trace.TableTrace trace) {
+        assert blockKeys != null;
+        int left = 0;
+        int right = blockKeys.length - 1;
+        while (left < right) {
+            final int mid = (left + right + 1) / 2;
+            if (trace != null) {
+                trace.probed();
+            }
+            if (key.compareTo(blockKeys[mid]) < 0) {
+                right = mid - 1;
+            } else {
+                left = mid;
+            }
+        }
+        return left;
     }
 
     private long offsetForRow(final int row) throws IOException {
@@ -31,45 +228,50 @@ final class SSTable implements Table {
             return 0;
         }
 
-        channel.read(longBuffer.rewind(), channel.size() - Integer.BYTES + Long.BYTES * (-size + row));
-        return longBuffer.rewind().getLong();
+        return file.getLong(offsetsEnd + Long.BYTES * (-size + row));
     }
 
     private ByteBuffer key(final long begin) throws IOException {
-        long offset = begin;
-        channel.read(intBuffer.rewind(), offset);
-
-        final ByteBuffer key = ByteBuffer.allocate(intBuffer.rewind().getInt());
-        offset += Integer.BYTES;
-        channel.read(key, offset);
-        return key.rewind();
+        final int keySize = file.getInt(begin);
+        return file.slice(begin + Integer.BYTES, keySize);
     }
 
     private Cell cell(final long begin) throws IOException {
+        final ByteBuffer key = key(begin);
+        return new Cell(key, value(begin + Integer.BYTES + key.remaining()));
+    }
+
+    private Value value(final long begin) throws IOException {
         long offset = begin;
-        final ByteBuffer key = key(offset);
-        offset += key.remaining() + Integer.BYTES;
-        channel.read(longBuffer.rewind(), offset);
-        final long timestamp = longBuffer.rewind().getLong();
+        final long timestamp = file.getLong(offset);
         offset += Long.BYTES;
         if (timestamp < 0) {
-            return new Cell(key, new Value(-timestamp));
+            return new Value(-timestamp);
         }
 
-        channel.read(intBuffer.rewind(), offset);
-        final ByteBuffer value = ByteBuffer.allocate(intBuffer.rewind().getInt());
+        final int valueSize = file.getInt(offset);
         offset += Integer.BYTES;
-        channel.read(value, offset);
-        return new Cell(key, new Value(value.rewind(), timestamp));
+        return new Value(file.slice(offset, valueSize), timestamp);
+    }
+
+    private int compareKey(
+            @NotNull final ByteBuffer key,
+            final long begin) throws IOException {
+        return file.compare(key, begin + Integer.BYTES, file.getInt(begin));
     }
 
-    private int binarySearch(@NotNull final ByteBuffer from) throws IOException {
+    private int binarySearch(
+            @NotNull final ByteBuffer from,
+            @Nullable final Trace.TableTrace trace) throws IOException {
         int left = 0;
         int right = size - 1;
 
         while (left <= right) {
             final int mid = (left + right) / 2;
-            final int comp = from.compareTo(key(offsetForRow(mid)));
+            if (trace != null) {
+                trace.probed();
+            }
+            final int comp = compareKey(from, offsetForRow(mid));
             if (comp < 0) {
                 right = mid - 1;
             } else if (comp > 0) {
@@ -85,8 +287,21 @@ final class SSTable implements Table {
     @NotNull
     @Override
     public Iterator<Cell> iterator(@NotNull final ByteBuffer from) throws IOException {
+        return iterator(from, null);
+    }
+
+    /**
+     * Iterates from the key recording the reads into the trace, if given.
+     */
+    @NotNull
+    Iterator<Cell> iterator(
+            @NotNull final ByteBuffer from,
+            @Nullable final Trace.TableTrace trace) throws IOException {
+        if (blockOffsets != null) {
+            return blockIterator(from, trace);
+        }
         return new Iterator<>() {
-            private int nextRow = binarySearch(from);
+            private int nextRow = binarySearch(from, trace);
 
             @Override
             public boolean hasNext() {
@@ -104,6 +319,143 @@ final class SSTable implements Table {
         };
     }
 
+    @NotNull
+    private Iterator<Cell> blockIterator(
+            @NotNull final ByteBuffer from,
+            @Nullable final Trace.TableTrace trace) throws IOException {
+        assert blockOffsets != null;
+        final int first = blockFor(from, trace);
+        final Iterator<Cell> head = block(first, trace).iterator(from);
+        // The following blocks are read only when the previous ones are over
+        final Iterator<Iterator<Cell>> blocks = new AbstractIterator<>() {
+            private int next = first + 1;
+
+            @Override
+            protected Iterator<Cell> computeNext() {
+                if (next == blockOffsets.length) {
+                    return endOfData();
+                }
+                try {
+                    return block(next++, trace).iterator(ByteBuffer.allocate(0));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+        return Iterators.concat(head, Iterators.concat(blocks));
+    }
+
+    @Nullable
+    @Override
+    public Value get(@NotNull final ByteBuffer key) throws IOException {
+        return get(key, null);
+    }
+
+    /**
+     * Looks the key up recording the reads into the trace, if given.
+     */
+    @Nullable
+    Value get(
+            @NotNull final ByteBuffer key,
+            @Nullable final Trace.TableTrace trace) throws IOException {
+        if (blockOffsets != null) {
+            return block(blockFor(key, trace), trace).get(key);
+        }
+
+        int left = 0;
+        int right = size - 1;
+
+        while (left <= right) {
+            final int mid = (left + right) / 2;
+            if (trace != null) {
+                trace.probed();
+            }
+            final long offset = offsetForRow(mid);
+            final int comp = compareKey(key, offset);
+            if (comp < 0) {
+                right = mid - 1;
+            } else if (comp > 0) {
+                left = mid + 1;
+            } else {
+                return value(offset + Integer.BYTES + file.getInt(offset));
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns keys splitting the table into parts of about a block each, to estimate key distribution.
+     */
+    @NotNull
+    List<ByteBuffer> sampleKeys() throws IOException {
+        if (blockKeys != null) {
+            final List<ByteBuffer> result = new ArrayList<>(blockKeys.length);
+            for (final ByteBuffer key : blockKeys) {
+                result.add(key.asReadOnlyBuffer());
+            }
+            return result;
+        }
+        final int step = (int) Math.max(1L, size / Math.max(1L, file.size() / ROWS_SAMPLE_BYTES));
+        final List<ByteBuffer> result = new ArrayList<>(size / step + 1);
+        for (int row = 0; row < size; row += step) {
+            result.add(key(offsetForRow(row)));
+        }
+        return result;
+    }
+
+    int getGeneration() {
+        return generation;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    int getTombstones() {
+        return tombstones;
+    }
+
+    /**
+     * Returns the timestamp of the latest removal in the table, zero if there is none or it isn't known.
+     */
+    long getNewestTombstone() {
+        return newestTombstone;
+    }
+
+    @NotNull
+    ByteBuffer getFirstKey() {
+        return firstKey.asReadOnlyBuffer();
+    }
+
+    @NotNull
+    ByteBuffer getLastKey() {
+        return lastKey.asReadOnlyBuffer();
+    }
+
+    /**
+     * Whether the key may be in the table, false positives are possible.
+     *
+     * @param hash {@link BloomFilter#hash} of the key, computed once for all the tables
+     */
+    boolean mightContain(
+            @NotNull final ByteBuffer key,
+            final long hash) {
+        if (firstKey.compareTo(key) > 0 || lastKey.compareTo(key) < 0) {
+            return false;
+        }
+        return bloomFilter == null || bloomFilter.mightContain(hash);
+    }
+
+    /**
+     * Whether the table may contain keys from the inclusive range.
+     */
+    boolean overlaps(
+            @NotNull final ByteBuffer from,
+            @NotNull final ByteBuffer to) {
+        return firstKey.compareTo(to) <= 0 && lastKey.compareTo(from) >= 0;
+    }
+
     @Override
     public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) throws IOException {
         throw new UnsupportedOperationException("not implemented");
@@ -120,60 +472,126 @@ final class SSTable implements Table {
     }
 
     @Override
-    public long sizeInBytes() throws IOException {
-        return channel.size();
+    public long sizeInBytes() {
+        return file.size();
     }
 
     @Override
     public void close() throws IOException {
-        channel.close();
+        file.close();
     }
 
+    /**
+     * Writes the cells to the file, the iterator must not be empty. A partial file is removed on failure.
+     */
     static void serialize(
             @NotNull final File file,
-            final Iterator<Cell> iterator
-    ) throws IOException {
-        try (FileChannel headerChannel = FileChannel.open(
-                new File(file.getParentFile().toString() + HEADER_TEMP).toPath(),
+            @NotNull final Iterator<Cell> iterator,
+            @NotNull final Config config) throws IOException {
+        assert iterator.hasNext();
+        try (FileChannel writeChannel = FileChannel.open(
+                file.toPath(),
                 StandardOpenOption.CREATE_NEW,
-                StandardOpenOption.WRITE,
-                StandardOpenOption.READ,
-                StandardOpenOption.DELETE_ON_CLOSE)) {
-            try (FileChannel writeChannel = FileChannel.open(
-                    file.toPath(),
-                    StandardOpenOption.CREATE_NEW,
-                    StandardOpenOption.WRITE)) {
-                int current = 0;
-                long currentSize = 0;
-                final ByteBuffer intBuffer = ByteBuffer.allocate(Integer.BYTES);
-                final ByteBuffer longBuffer = ByteBuffer.allocate(Long.BYTES);
-                while (iterator.hasNext()) {
-                    final Cell cell = iterator.next();
-
-                    final int keySize = cell.getKey().remaining();
-                    writeChannel.write(intBuffer.rewind().putInt(keySize).rewind(), currentSize);
-                    currentSize += Integer.BYTES;
-                    writeChannel.write(cell.getKey(), currentSize);
-                    currentSize += keySize;
-
-                    final long timestamp = cell.getValue().getTimestamp() * (cell.getValue().isTombstone() ? -1 : 1);
-                    writeChannel.write(longBuffer.rewind().putLong(timestamp).rewind(), currentSize);
-                    currentSize += Long.BYTES;
-
-                    if (!cell.getValue().isTombstone()) {
-                        final int valueSize = cell.getValue().getData().remaining();
-                        writeChannel.write(intBuffer.rewind().putInt(valueSize).rewind(), currentSize);
-                        currentSize += Integer.BYTES;
-                        writeChannel.write(cell.getValue().getData(), currentSize);
-                        currentSize += valueSize;
-                    }
-                    headerChannel.write(longBuffer.rewind().putLong(currentSize).rewind(), Long.BYTES * current);
-                    current++;
+                StandardOpenOption.WRITE)) {
+            try {
+                write(file, writeChannel, iterator, config);
+            } catch (IOException | RuntimeException e) {
+                // A partial table would take the name the next attempt writes to
+                try {
+                    Files.delete(file.toPath());
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
                 }
-                writeChannel.transferFrom(headerChannel, currentSize, Long.BYTES * (current - 1));
-                currentSize += Long.BYTES * (current - 1);
-                writeChannel.write(intBuffer.rewind().putInt(current).rewind(), currentSize);
+                throw e;
             }
         }
     }
+
+    private static void write(
+            @NotNull final File file,
+            @NotNull final FileChannel writeChannel,
+            @NotNull final Iterator<Cell> iterator,
+            @NotNull final Config config) throws IOException {
+        try (FileChannel hashesChannel = openTemp(file, HASHES_TEMP)) {
+            final TableWriter writer = new TableWriter(writeChannel, WRITE_BUFFER);
+            // Hashes of huge tables don't fit into memory, so they are spilled
+            final TableWriter hashesWriter = new TableWriter(hashesChannel, HASHES_BUFFER);
+            final PeekingIterator<Cell> cells = Iterators.peekingIterator(iterator);
+            final long baseTimestamp = cells.peek().getValue().getTimestamp();
+            int rows = 0;
+            int tombstones = 0;
+            long newestTombstone = 0L;
+            final List<Long> blockOffsets = new ArrayList<>();
+            final List<ByteBuffer> blockKeys = new ArrayList<>();
+            final BlockBuilder block = new BlockBuilder(config.blockSize, baseTimestamp);
+            final BlockCodec codec = new BlockCodec(config.compression);
+            ByteBuffer lastKey = null;
+            while (cells.hasNext()) {
+                final Cell cell = cells.next();
+                if (block.isEmpty()) {
+                    blockOffsets.add(writer.position());
+                    blockKeys.add(lastKey == null ? cell.getKey() : Bytes.separator(lastKey, cell.getKey()));
+                }
+                block.add(cell);
+                if (cell.getValue().isTombstone()) {
+                    tombstones++;
+                    newestTombstone = Math.max(newestTombstone, cell.getValue().getTimestamp());
+                }
+                if (block.size() >= config.blockSize) {
+                    writer.write(codec.encode(block.finish()));
+                }
+                lastKey = cell.getKey();
+                hashesWriter.writeLong(BloomFilter.hash(cell.getKey()));
+                rows++;
+            }
+            if (!block.isEmpty()) {
+                writer.write(codec.encode(block.finish()));
+            }
+
+            final long indexOffset = writer.position();
+            for (int i = 0; i < blockOffsets.size(); i++) {
+                final ByteBuffer key = blockKeys.get(i);
+                writer.writeLong(blockOffsets.get(i));
+                writer.writeInt(key.remaining());
+                writer.write(key.duplicate());
+            }
+
+            // The number of keys is known only now, so the hashes are kept aside until here
+            hashesWriter.flush();
+            final BloomFilter bloomFilter = BloomFilter.create(rows);
+            final ByteBuffer hashes = hashesChannel.map(FileChannel.MapMode.READ_ONLY, 0, (long) Long.BYTES * rows);
+            for (int i = 0; i < rows; i++) {
+                bloomFilter.add(hashes.getLong());
+            }
+            final long bloomOffset = writer.position();
+            writer.write(bloomFilter.toBytes());
+
+            writer.writeInt(tombstones);
+            writer.writeLong(newestTombstone);
+            writer.writeLong(baseTimestamp);
+            writer.writeLong(indexOffset);
+            writer.writeLong(bloomOffset);
+            writer.writeInt(bloomFilter.getHashes());
+            writer.writeInt(blockOffsets.size());
+            writer.writeInt(rows);
+            writer.writeInt(BLOCKS);
+            writer.writeLong(MAGIC);
+            // The write-ahead log is dropped right after, so the table must be durable
+            writer.force();
+        }
+    }
+
+    @NotNull
+    private static FileChannel openTemp(
+            @NotNull final File file,
+            @NotNull final String suffix) throws IOException {
+        return FileChannel.open(
+                new File(file.getParentFile(), file.getName() + "." + suffix).toPath(),
+                // Left behind if the process has died, so it is overwritten
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.READ,
+                StandardOpenOption.DELETE_ON_CLOSE);
+    }
 }
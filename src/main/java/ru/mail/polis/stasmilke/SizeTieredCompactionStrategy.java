@@ -0,0 +1,74 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cassandra style compaction: merges buckets of similarly sized tables of level zero into one.
+ * A table joins a bucket if its size is within the ratios of the bucket average.
+ * To keep newer versions shadowing older ones, a bucket only holds adjacent generations.
+ */
+final class SizeTieredCompactionStrategy extends CompactionStrategy {
+    private final int minThreshold;
+    private final int maxThreshold;
+    private final double bucketLow;
+    private final double bucketHigh;
+
+    SizeTieredCompactionStrategy(
+            final int minThreshold,
+            final int maxThreshold,
+            final double bucketLow,
+            final double bucketHigh) {
+        super();
+        if (minThreshold < 2 || maxThreshold < minThreshold || bucketLow <= 0.0 || bucketLow > 1.0
+                || bucketHigh < 1.0) {
+            throw new IllegalArgumentException("Illegal size-tiered compaction options");
+        }
+        this.minThreshold = minThreshold;
+        this.maxThreshold = maxThreshold;
+        this.bucketLow = bucketLow;
+        this.bucketHigh = bucketHigh;
+    }
+
+    @Nullable
+    @Override
+    Compaction pick(@NotNull final TableSet tables) {
+        final List<SSTable> levelZero = tables.level(0);
+        List<SSTable> best = null;
+        double bestAverage = Double.MAX_VALUE;
+
+        // Oldest first
+        List<SSTable> bucket = new ArrayList<>();
+        long bucketBytes = 0L;
+        for (int i = levelZero.size() - 1; i >= 0; i--) {
+            final SSTable table = levelZero.get(i);
+            final long size = table.sizeInBytes();
+            final double average = bucket.isEmpty() ? size : (double) bucketBytes / bucket.size();
+            if (bucket.size() == maxThreshold || size < average * bucketLow || size > average * bucketHigh) {
+                if (bucket.size() >= minThreshold && average < bestAverage) {
+                    best = bucket;
+                    bestAverage = average;
+                }
+                bucket = new ArrayList<>();
+                bucketBytes = 0L;
+            }
+            bucket.add(table);
+            bucketBytes += size;
+        }
+        if (bucket.size() >= minThreshold && (double) bucketBytes / bucket.size() < bestAverage) {
+            best = bucket;
+        }
+
+        // The smallest tables are the cheapest to merge and the most numerous
+        return best == null ? null : new Compaction(best, 0, Long.MAX_VALUE);
+    }
+
+    @Nullable
+    @Override
+    Compaction major(@NotNull final TableSet tables) {
+        return mergeAll(tables);
+    }
+}
@@ -0,0 +1,25 @@
+package ru.mail.polis.stasmilke;
+
+/**
+ * When the write-ahead log of {@link LsmDAO} is forced to disk.
+ */
+public enum SyncPolicy {
+    /**
+     * Every write is forced to disk before it is acknowledged.
+     */
+    ALWAYS,
+    /**
+     * Every write is forced to disk before it is acknowledged, but the concurrent writes share
+     * one write and one fsync of the log.
+     */
+    GROUP,
+    /**
+     * The log is forced to disk in background every {@link Config.Builder#syncPeriodMillis} milliseconds,
+     * so a power loss may take the writes of the last period.
+     */
+    PERIODIC,
+    /**
+     * The log is never forced and survives process crashes only.
+     */
+    NONE
+}
@@ -1,6 +1,7 @@
 package ru.mail.polis.stasmilke;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -11,6 +12,12 @@ public interface Table {
     @NotNull
     Iterator<Cell> iterator(@NotNull ByteBuffer from) throws IOException;
 
+    /**
+     * Returns the version of the key, possibly a tombstone, or {@code null} if the table has none.
+     */
+    @Nullable
+    Value get(@NotNull ByteBuffer key) throws IOException;
+
     void upsert(
             @NotNull ByteBuffer key,
             @NotNull ByteBuffer value) throws IOException;
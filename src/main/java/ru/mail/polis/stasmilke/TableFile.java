@@ -0,0 +1,52 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only random access to the bytes of an immutable table file.
+ */
+interface TableFile extends Closeable {
+
+    long size();
+
+    int getInt(long offset) throws IOException;
+
+    long getLong(long offset) throws IOException;
+
+    /**
+     * Returns {@code length} bytes starting at {@code offset} positioned at zero.
+     */
+    @NotNull
+    ByteBuffer slice(long offset, int length) throws IOException;
+
+    /**
+     * Compares the key with {@code length} bytes starting at {@code offset} the way {@link ByteBuffer#compareTo} does.
+     */
+    default int compare(
+            @NotNull final ByteBuffer key,
+            final long offset,
+            final int length) throws IOException {
+        return key.compareTo(slice(offset, length));
+    }
+
+    /**
+     * Opens the file for reading.
+     *
+     * @param file file to read
+     * @param mapped whether to map the file into memory instead of issuing a read per access
+     */
+    @NotNull
+    static TableFile open(
+            @NotNull final File file,
+            final boolean mapped) throws IOException {
+        if (mapped && file.length() <= Integer.MAX_VALUE) {
+            return new MappedTableFile(file);
+        }
+        return new ChannelTableFile(file);
+    }
+}
@@ -0,0 +1,111 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Immutable snapshot of the tables of {@link LsmDAO}.
+ * Readers take the current snapshot and never lock, writers replace it as a whole.
+ */
+final class TableSet {
+    @NotNull
+    final MemTable memTable;
+    /**
+     * Log of the writes to the current {@link MemTable}.
+     */
+    @NotNull
+    final WriteAheadLog wal;
+    @NotNull
+    final NavigableMap<Integer, Table> flushing;
+    @NotNull
+    final NavigableMap<Integer, SSTable> ssTables;
+    /**
+     * The same {@link SSTable}s ordered by {@link SSTable#NEWEST_FIRST}.
+     */
+    @NotNull
+    final List<SSTable> ssTablesNewestFirst;
+    /**
+     * Generation of the current {@link MemTable}.
+     */
+    final int generation;
+
+    TableSet(
+            @NotNull final MemTable memTable,
+            @NotNull final WriteAheadLog wal,
+            @NotNull final NavigableMap<Integer, Table> flushing,
+            @NotNull final NavigableMap<Integer, SSTable> ssTables,
+            final int generation) {
+        assert generation > 0;
+        this.memTable = memTable;
+        this.wal = wal;
+        this.flushing = Collections.unmodifiableNavigableMap(flushing);
+        this.ssTables = Collections.unmodifiableNavigableMap(ssTables);
+        final List<SSTable> newestFirst = new ArrayList<>(ssTables.values());
+        newestFirst.sort(SSTable.NEWEST_FIRST);
+        this.ssTablesNewestFirst = Collections.unmodifiableList(newestFirst);
+        this.generation = generation;
+    }
+
+    /**
+     * Freezes the current {@link MemTable} for flushing and starts an empty one.
+     */
+    @NotNull
+    TableSet markedForFlush(
+            final int newGeneration,
+            @NotNull final WriteAheadLog newWal) {
+        assert newGeneration > generation;
+        final NavigableMap<Integer, Table> newFlushing = new TreeMap<>(flushing);
+        newFlushing.put(generation, memTable);
+        return new TableSet(new MemTable(), newWal, newFlushing, ssTables, newGeneration);
+    }
+
+    /**
+     * Replaces the frozen {@link MemTable} of the generation with its flushed copy.
+     */
+    @NotNull
+    TableSet flushed(@NotNull final SSTable ssTable) {
+        final NavigableMap<Integer, Table> newFlushing = new TreeMap<>(flushing);
+        final Table removed = newFlushing.remove(ssTable.getGeneration());
+        assert removed != null;
+        final NavigableMap<Integer, SSTable> newSSTables = new TreeMap<>(ssTables);
+        newSSTables.put(ssTable.getGeneration(), ssTable);
+        return new TableSet(memTable, wal, newFlushing, newSSTables, generation);
+    }
+
+    /**
+     * Replaces the compacted {@link SSTable}s with the result of their compaction.
+     */
+    @NotNull
+    TableSet compacted(
+            @NotNull final Collection<SSTable> replaced,
+            @NotNull final Collection<SSTable> compacted) {
+        final NavigableMap<Integer, SSTable> newSSTables = new TreeMap<>(ssTables);
+        for (final SSTable table : replaced) {
+            newSSTables.remove(table.getGeneration());
+        }
+        for (final SSTable table : compacted) {
+            newSSTables.put(table.getGeneration(), table);
+        }
+        return new TableSet(memTable, wal, flushing, newSSTables, generation);
+    }
+
+    /**
+     * Returns the {@link SSTable}s of the level.
+     */
+    @NotNull
+    List<SSTable> level(final int level) {
+        final List<SSTable> result = new ArrayList<>();
+        for (final SSTable table : ssTablesNewestFirst) {
+            if (table.getLevel() == level) {
+                result.add(table);
+            }
+        }
+        return result;
+    }
+}
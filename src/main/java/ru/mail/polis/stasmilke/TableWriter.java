@@ -0,0 +1,95 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends to a file through a direct buffer, so that small writes cost no syscalls
+ * and the file grows by big sequential chunks.
+ * The writes which don't fit into the buffer are gathered with it into a single syscall.
+ */
+final class TableWriter {
+    @NotNull
+    private final FileChannel channel;
+    @NotNull
+    private final ByteBuffer buffer;
+    @NotNull
+    private final ByteBuffer[] gather = new ByteBuffer[2];
+    private long position;
+
+    /**
+     * Appends to the channel starting from its current position.
+     */
+    TableWriter(
+            @NotNull final FileChannel channel,
+            final int bufferSize) throws IOException {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.position = channel.position();
+    }
+
+    /**
+     * Returns the size of the file including the buffered bytes.
+     */
+    long position() {
+        return position;
+    }
+
+    void write(@NotNull final ByteBuffer src) throws IOException {
+        final int size = src.remaining();
+        if (size <= buffer.remaining()) {
+            buffer.put(src);
+        } else if (size < buffer.capacity()) {
+            flush();
+            buffer.put(src);
+        } else {
+            buffer.flip();
+            gather[0] = buffer;
+            gather[1] = src;
+            while (src.hasRemaining()) {
+                channel.write(gather);
+            }
+            gather[1] = null;
+            buffer.clear();
+        }
+        position += size;
+    }
+
+    void writeLong(final long value) throws IOException {
+        if (buffer.remaining() < Long.BYTES) {
+            flush();
+        }
+        buffer.putLong(value);
+        position += Long.BYTES;
+    }
+
+    void writeInt(final int value) throws IOException {
+        if (buffer.remaining() < Integer.BYTES) {
+            flush();
+        }
+        buffer.putInt(value);
+        position += Integer.BYTES;
+    }
+
+    /**
+     * Writes the buffered bytes to the channel.
+     */
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Flushes the buffer and forces the file to the disk.
+     */
+    void force() throws IOException {
+        flush();
+        channel.force(true);
+    }
+}
@@ -0,0 +1,151 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * What a single lookup or range scan of {@link LsmDAO} has read, filled in as the operation goes,
+ * so the trace of an iterator is complete once the iterator is over.
+ * Not thread-safe, a trace belongs to one operation.
+ */
+public final class Trace {
+    @NotNull
+    private final List<TableTrace> tables = new ArrayList<>();
+    private int filteredTables;
+    private long shadowedCells;
+    private long tombstones;
+
+    /**
+     * Returns the {@link SSTable}s read, newest first.
+     */
+    @NotNull
+    public List<TableTrace> getTables() {
+        return Collections.unmodifiableList(tables);
+    }
+
+    /**
+     * Returns how many {@link SSTable}s a lookup has skipped by their filters and key ranges.
+     */
+    public int getFilteredTables() {
+        return filteredTables;
+    }
+
+    /**
+     * Returns how many older versions of the keys have been dropped while merging the tables.
+     */
+    public long getShadowedCells() {
+        return shadowedCells;
+    }
+
+    /**
+     * Returns how many removed keys have been skipped.
+     */
+    public long getTombstones() {
+        return tombstones;
+    }
+
+    @NotNull
+    TableTrace table(@NotNull final SSTable ssTable) {
+        final TableTrace result = new TableTrace(ssTable.getGeneration(), ssTable.getLevel());
+        tables.add(result);
+        return result;
+    }
+
+    void filtered() {
+        filteredTables++;
+    }
+
+    void shadowed() {
+        shadowedCells++;
+    }
+
+    void tombstone() {
+        tombstones++;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d tables [%s], %d filtered, %d shadowed cells, %d tombstones",
+                tables.size(),
+                tables.stream().map(TableTrace::toString).collect(Collectors.joining("; ")),
+                filteredTables,
+                shadowedCells,
+                tombstones);
+    }
+
+    /**
+     * What has been read from one {@link SSTable}.
+     */
+    public static final class TableTrace {
+        private final int generation;
+        private final int level;
+        private int probes;
+        private int blocks;
+        private int cachedBlocks;
+        private long bytes;
+
+        private TableTrace(
+                final int generation,
+                final int level) {
+            this.generation = generation;
+            this.level = level;
+        }
+
+        public int getGeneration() {
+            return generation;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        /**
+         * Returns how many keys the binary searches have compared to.
+         */
+        public int getProbes() {
+            return probes;
+        }
+
+        public int getBlocks() {
+            return blocks;
+        }
+
+        /**
+         * Returns how many of the {@link #getBlocks} have been found in {@link BlockCache}.
+         */
+        public int getCachedBlocks() {
+            return cachedBlocks;
+        }
+
+        /**
+         * Returns the stored size of the blocks, cached ones included.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        void probed() {
+            probes++;
+        }
+
+        void blockRead(
+                final long size,
+                final boolean cached) {
+            blocks++;
+            bytes += size;
+            if (cached) {
+                cachedBlocks++;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d_%d: %d probes, %d blocks (%d cached), %d bytes",
+                    generation, level, probes, blocks, cachedBlocks, bytes);
+        }
+    }
+}
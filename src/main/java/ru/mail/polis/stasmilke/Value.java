@@ -4,32 +4,34 @@ import org.jetbrains.annotations.NotNull;
 
 import javax.annotation.Nullable;
 import java.nio.ByteBuffer;
-import java.util.Optional;
 
 final class Value implements Comparable<Value> {
-    private final Optional<ByteBuffer> data;
+    @Nullable
+    private final ByteBuffer data;
     private final long timestamp;
 
     Value(@Nullable final ByteBuffer data, final long timestamp) {
         assert timestamp > 0L;
-        this.data = Optional.ofNullable(data);
+        this.data = data;
         this.timestamp = timestamp;
     }
 
     Value(final long timestamp) {
         assert timestamp > 0L;
-        this.data = Optional.empty();
+        this.data = null;
         this.timestamp = timestamp;
     }
 
     boolean isTombstone() {
-        return data.isEmpty();
+        return data == null;
     }
 
     @NotNull
     ByteBuffer getData() {
-        assert !isTombstone();
-        return data.orElseThrow().asReadOnlyBuffer();
+        if (data == null) {
+            throw new IllegalStateException("Tombstone has no data");
+        }
+        return data.asReadOnlyBuffer();
     }
 
     @Override
@@ -38,7 +40,7 @@ final class Value implements Comparable<Value> {
     }
 
     public long sizeInBytes() {
-        return Long.BYTES + (data.isPresent() ? data.get().remaining() : 0L);
+        return Long.BYTES + (data == null ? 0L : data.remaining());
     }
 
     public long getTimestamp() {
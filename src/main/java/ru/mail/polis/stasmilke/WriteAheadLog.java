@@ -0,0 +1,260 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the writes to one {@link MemTable}.
+ * Every record is {@code [payload length][CRC32 of payload][payload]}, where the payload is
+ * {@code [timestamp][key length][key][value length or -1 for tombstone][value]}.
+ *
+ * <p>With {@link SyncPolicy#GROUP} the writers only enqueue their records, and a dedicated thread
+ * appends everything queued so far with one gathering write and one fsync, then releases the whole batch.
+ */
+final class WriteAheadLog implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
+    private static final int HEADER = Integer.BYTES * 2;
+    private static final int TOMBSTONE = -1;
+    private static final int MAX_BATCH = 1024;
+    private static final Pending CLOSE = new Pending(ByteBuffer.allocate(0));
+
+    @NotNull
+    private final FileChannel channel;
+    @NotNull
+    private final SyncPolicy syncPolicy;
+    @Nullable
+    private final BlockingQueue<Pending> queue;
+    @Nullable
+    private final Thread writer;
+    @Nullable
+    private volatile IOException failure;
+
+    WriteAheadLog(
+            @NotNull final File file,
+            @NotNull final SyncPolicy syncPolicy) throws IOException {
+        this.channel = FileChannel.open(
+                file.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.syncPolicy = syncPolicy;
+        if (syncPolicy == SyncPolicy.GROUP) {
+            this.queue = new LinkedBlockingQueue<>();
+            this.writer = new Thread(this::commitLoop, "wal-writer");
+            this.writer.setDaemon(true);
+            this.writer.start();
+        } else {
+            this.queue = null;
+            this.writer = null;
+        }
+    }
+
+    void append(
+            @NotNull final ByteBuffer key,
+            @NotNull final Value value) throws IOException {
+        final ByteBuffer record = encode(key, value);
+        if (queue != null) {
+            final Pending pending = new Pending(record);
+            queue.add(pending);
+            await(pending.committed);
+            return;
+        }
+        // A record goes in one piece even if the channel splits the write
+        synchronized (this) {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        }
+        if (syncPolicy == SyncPolicy.ALWAYS) {
+            sync();
+        }
+    }
+
+    void sync() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (queue != null && writer != null) {
+            // Everything enqueued before is committed ahead of the marker
+            queue.add(CLOSE);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while closing log", e);
+            }
+        }
+        if (syncPolicy != SyncPolicy.NONE) {
+            sync();
+        }
+        channel.close();
+    }
+
+    private void commitLoop() {
+        assert queue != null;
+        final List<Pending> batch = new ArrayList<>(MAX_BATCH);
+        boolean closed = false;
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                logger.error("Log writer has been interrupted", e);
+                return;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            if (batch.get(batch.size() - 1) == CLOSE) {
+                batch.remove(batch.size() - 1);
+                closed = true;
+            }
+            commit(batch);
+            batch.clear();
+        }
+    }
+
+    private void commit(@NotNull final List<Pending> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        // Records after a failed write would be unreachable by replay, so the log stays broken
+        if (failure == null) {
+            final ByteBuffer[] records = new ByteBuffer[batch.size()];
+            for (int i = 0; i < records.length; i++) {
+                records[i] = batch.get(i).record;
+            }
+            try {
+                while (records[records.length - 1].hasRemaining()) {
+                    channel.write(records);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        for (final Pending pending : batch) {
+            if (failure == null) {
+                pending.committed.complete(null);
+            } else {
+                pending.committed.completeExceptionally(failure);
+            }
+        }
+    }
+
+    private static void await(@NotNull final CompletableFuture<Void> committed) throws IOException {
+        try {
+            committed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for log", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Can't write log", e.getCause());
+        }
+    }
+
+    @NotNull
+    private static ByteBuffer encode(
+            @NotNull final ByteBuffer key,
+            @NotNull final Value value) {
+        final int keySize = key.remaining();
+        final int valueSize = value.isTombstone() ? 0 : value.getData().remaining();
+        final int payloadSize = Long.BYTES + Integer.BYTES + keySize + Integer.BYTES + valueSize;
+        final ByteBuffer record = ByteBuffer.allocate(HEADER + payloadSize);
+        record.position(HEADER);
+        record.putLong(value.getTimestamp());
+        record.putInt(keySize);
+        record.put(key.duplicate());
+        if (value.isTombstone()) {
+            record.putInt(TOMBSTONE);
+        } else {
+            record.putInt(valueSize);
+            record.put(value.getData());
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER, payloadSize);
+        record.putInt(0, payloadSize);
+        record.putInt(Integer.BYTES, (int) crc.getValue());
+        return record.rewind();
+    }
+
+    /**
+     * Applies the intact records of the log to the table.
+     * Replay stops at the first torn or corrupted record, which can only be the tail of an interrupted write.
+     */
+    static void replay(
+            @NotNull final File file,
+            @NotNull final MemTable memTable) throws IOException {
+        final ByteBuffer log;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        final CRC32 crc = new CRC32();
+        while (log.remaining() >= HEADER) {
+            final int payloadSize = log.getInt();
+            final int checksum = log.getInt();
+            if (payloadSize < 0 || payloadSize > log.remaining()) {
+                logger.warn(String.format("Torn record in %s at %d", file, log.position() - HEADER));
+                return;
+            }
+            final ByteBuffer payload = log.slice().limit(payloadSize);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                logger.warn(String.format("Corrupted record in %s at %d", file, log.position() - HEADER));
+                return;
+            }
+            log.position(log.position() + payloadSize);
+
+            final long timestamp = payload.getLong();
+            final ByteBuffer key = copy(payload, payload.getInt());
+            final int valueSize = payload.getInt();
+            if (valueSize == TOMBSTONE) {
+                memTable.put(key, new Value(timestamp));
+            } else {
+                memTable.put(key, new Value(copy(payload, valueSize), timestamp));
+            }
+        }
+    }
+
+    @NotNull
+    private static ByteBuffer copy(
+            @NotNull final ByteBuffer from,
+            final int size) {
+        final ByteBuffer result = ByteBuffer.allocate(size);
+        final ByteBuffer source = from.duplicate();
+        source.limit(source.position() + size);
+        result.put(source);
+        from.position(from.position() + size);
+        return result.rewind();
+    }
+
+    private static final class Pending {
+        @NotNull
+        final ByteBuffer record;
+        @NotNull
+        final CompletableFuture<Void> committed = new CompletableFuture<>();
+
+        Pending(@NotNull final ByteBuffer record) {
+            this.record = record;
+        }
+    }
+}
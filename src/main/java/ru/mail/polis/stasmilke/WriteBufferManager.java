@@ -0,0 +1,193 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Memory budget of the {@link MemTable}s of all the {@link LsmDAO}s sharing it, frozen ones included,
+ * optionally together with a {@link BlockCache}.
+ *
+ * <p>When the mutable tables take most of the budget, the biggest one is flushed even if it is below
+ * its own {@link Config#flushThreshold}. When the budget is exhausted while some tables are being flushed,
+ * writers wait for the flushes to free the memory.
+ */
+public final class WriteBufferManager {
+    private static final long STALL_CHECK_MILLIS = 10L;
+
+    private final long budget;
+    @Nullable
+    private final BlockCache cache;
+    private final AtomicLong memTables = new AtomicLong();
+    private final AtomicLong flushing = new AtomicLong();
+    private final Set<LsmDAO> daos = ConcurrentHashMap.newKeySet();
+    private final LongAdder stalls = new LongAdder();
+    private final LongAdder stallNanos = new LongAdder();
+    private final Object released = new Object();
+
+    private WriteBufferManager(
+            final long budget,
+            @Nullable final BlockCache cache) {
+        if (budget <= 0L) {
+            throw new IllegalArgumentException("Budget must be positive: " + budget);
+        }
+        if (cache != null && cache.capacity() >= budget) {
+            throw new IllegalArgumentException("Cache of " + cache.capacity() + " bytes leaves no room for writes");
+        }
+        this.budget = budget;
+        this.cache = cache;
+    }
+
+    /**
+     * Limits the memory of memtables.
+     *
+     * @param budget max size of memtables in bytes
+     */
+    @NotNull
+    public static WriteBufferManager create(final long budget) {
+        return new WriteBufferManager(budget, null);
+    }
+
+    /**
+     * Limits the memory of memtables and the cache together, memtables get what the cache doesn't take.
+     *
+     * @param budget max size of memtables and cached blocks in bytes, more than the capacity of the cache
+     */
+    @NotNull
+    public static WriteBufferManager create(
+            final long budget,
+            @NotNull final BlockCache cache) {
+        return new WriteBufferManager(budget, cache);
+    }
+
+    public long budget() {
+        return budget;
+    }
+
+    /**
+     * Returns the memory taken by memtables and the cache.
+     */
+    public long memoryUsage() {
+        return memTableUsage() + (cache == null ? 0L : cache.sizeInBytes());
+    }
+
+    /**
+     * Returns the memory taken by memtables including the ones being flushed.
+     */
+    public long memTableUsage() {
+        return memTables.get();
+    }
+
+    /**
+     * Returns the memory taken by memtables being flushed.
+     */
+    public long flushingUsage() {
+        return flushing.get();
+    }
+
+    /**
+     * Returns how many writes have waited for flushes.
+     */
+    public long stalls() {
+        return stalls.sum();
+    }
+
+    public long stallMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(stallNanos.sum());
+    }
+
+    void register(@NotNull final LsmDAO dao) {
+        daos.add(dao);
+    }
+
+    void unregister(@NotNull final LsmDAO dao) {
+        daos.remove(dao);
+    }
+
+    /**
+     * Blocks while the budget is exhausted and flushes are going to free some memory.
+     */
+    void awaitRoom() throws IOException {
+        if (!exhausted()) {
+            return;
+        }
+        stalls.increment();
+        final long start = System.nanoTime();
+        try {
+            synchronized (released) {
+                while (exhausted()) {
+                    // The cache shrinks without notice, so the condition is checked from time to time
+                    released.wait(STALL_CHECK_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for memory", e);
+        } finally {
+            stallNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    void reserve(final long bytes) {
+        memTables.addAndGet(bytes);
+    }
+
+    /**
+     * Flushes the biggest mutable memtable if mutable memtables take too much.
+     */
+    void maybeFlush() throws IOException {
+        if (!needsFlush()) {
+            return;
+        }
+        LsmDAO biggest = null;
+        long biggestSize = 0L;
+        for (final LsmDAO dao : daos) {
+            final long size = dao.memTableSize();
+            if (size > biggestSize) {
+                biggest = dao;
+                biggestSize = size;
+            }
+        }
+        if (biggest != null) {
+            biggest.flushMemTable();
+        }
+    }
+
+    /**
+     * Whether mutable memtables take too much, so one of them should be frozen.
+     */
+    boolean needsFlush() {
+        final long available = budget - (cache == null ? 0L : cache.sizeInBytes());
+        final long mutable = memTables.get() - flushing.get();
+        // Flushing before the memory is over leaves room for the writes which come meanwhile
+        return mutable > available / 8 * 7 || memoryUsage() >= budget && mutable >= available / 2;
+    }
+
+    /**
+     * Accounts a memtable frozen for flushing.
+     */
+    void frozen(final long bytes) {
+        flushing.addAndGet(bytes);
+    }
+
+    /**
+     * Releases the memory of a flushed memtable.
+     */
+    void flushed(final long bytes) {
+        flushing.addAndGet(-bytes);
+        memTables.addAndGet(-bytes);
+        synchronized (released) {
+            released.notifyAll();
+        }
+    }
+
+    private boolean exhausted() {
+        return memoryUsage() >= budget && flushing.get() > 0L;
+    }
+}
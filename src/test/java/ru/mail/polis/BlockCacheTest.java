@@ -0,0 +1,69 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.stasmilke.BlockCache;
+import ru.mail.polis.stasmilke.Config;
+import ru.mail.polis.stasmilke.LsmDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks {@link LsmDAO} reading through a {@link BlockCache}.
+ */
+class BlockCacheTest extends TestBase {
+    private static final int KEYS = 4096;
+    private static final long CAPACITY = 256 * 1024;
+
+    @Test
+    void lru(@TempDir File data) throws IOException {
+        check(data, BlockCache.lru(CAPACITY, false));
+    }
+
+    @Test
+    void clockOffHeap(@TempDir File data) throws IOException {
+        check(data, BlockCache.clock(CAPACITY, true));
+    }
+
+    private static void check(
+            @NotNull final File data,
+            @NotNull final BlockCache cache) throws IOException {
+        final Config config = Config.builder(64 * 1024)
+                .mappedReads(false)
+                .blockCache(cache)
+                .build();
+        final Map<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        try (DAO dao = new LsmDAO(data, config)) {
+            for (int i = 0; i < KEYS; i++) {
+                final ByteBuffer key = randomKey();
+                final ByteBuffer value = randomBuffer(64);
+                dao.upsert(key, value);
+                expected.put(key, value);
+            }
+        }
+
+        try (DAO dao = new LsmDAO(data, config)) {
+            // The data doesn't fit, so the blocks get evicted
+            for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+                assertEquals(entry.getValue(), dao.get(entry.getKey()));
+            }
+            assertTrue(cache.sizeInBytes() <= cache.capacity());
+
+            // The hot keys are served from the cache
+            final ByteBuffer hot = expected.keySet().iterator().next();
+            final long hits = cache.hits();
+            for (int i = 0; i < 100; i++) {
+                assertEquals(expected.get(hot), dao.get(hot));
+            }
+            assertTrue(cache.hits() >= hits + 99);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.stasmilke.CompactionStrategy;
+import ru.mail.polis.stasmilke.Config;
+import ru.mail.polis.stasmilke.LsmDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks {@link LsmDAO} with the compaction strategies other than the default one.
+ */
+class CompactionStrategyTest extends TestBase {
+    private static final long FLUSH_THRESHOLD = 64 * 1024;
+    private static final int KEYS = 2048;
+    private static final int OPERATIONS = 32 * 1024;
+    private static final long COMPACTION_BYTES_PER_SECOND = 128 * 1024;
+
+    @Test
+    void leveled(@TempDir File data) throws IOException {
+        final Config config = Config.builder(FLUSH_THRESHOLD)
+                .compactionStrategy(CompactionStrategy.leveled(2, 32 * 1024, 128 * 1024, 4))
+                .build();
+        checkOverwrites(data, config);
+
+        // Levels below zero don't keep obsolete versions
+        assertTrue(Files.directorySize(data) < 4 * KEYS * (KEY_LENGTH + 64));
+    }
+
+    @Test
+    void sizeTiered(@TempDir File data) throws IOException {
+        final Config config = Config.builder(FLUSH_THRESHOLD)
+                .compactionStrategy(CompactionStrategy.sizeTiered(2, 4, 0.5, 1.5))
+                .build();
+        checkOverwrites(data, config);
+    }
+
+    @Test
+    void parallel(@TempDir File data) throws IOException {
+        final Config config = Config.builder(FLUSH_THRESHOLD)
+                .compactionStrategy(CompactionStrategy.full(4))
+                .compactionThreads(4)
+                .blockSize(128)
+                .build();
+        checkOverwrites(data, config);
+
+        // The major compaction has split the keys into ranges of their own
+        final File[] tables = data.listFiles((dir, name) -> name.endsWith(".dat"));
+        assertTrue(tables != null && tables.length > 1);
+    }
+
+    @Test
+    void throttled(@TempDir File data) throws IOException {
+        final File fastData = new File(data, "fast");
+        final File slowData = new File(data, "slow");
+        assertTrue(fastData.mkdir() && slowData.mkdir());
+        final Config fastConfig = Config.builder(FLUSH_THRESHOLD)
+                .compactionStrategy(CompactionStrategy.full(Integer.MAX_VALUE))
+                .build();
+        final Config slowConfig = Config.builder(FLUSH_THRESHOLD)
+                .compactionStrategy(CompactionStrategy.full(Integer.MAX_VALUE))
+                .compactionBytesPerSecond(COMPACTION_BYTES_PER_SECOND)
+                .build();
+
+        // Both stores get the same writes
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        for (int round = 0; round < 4; round++) {
+            try (DAO fast = new LsmDAO(fastData, fastConfig);
+                 DAO slow = new LsmDAO(slowData, slowConfig)) {
+                for (int i = 0; i < KEYS / 2; i++) {
+                    final ByteBuffer key = randomKey();
+                    final ByteBuffer value = randomBuffer(64);
+                    fast.upsert(key, value);
+                    slow.upsert(key, value);
+                    expected.put(key, value);
+                }
+            }
+        }
+
+        try (LsmDAO fast = new LsmDAO(fastData, fastConfig);
+             LsmDAO slow = new LsmDAO(slowData, slowConfig)) {
+            fast.compact();
+            final long start = System.nanoTime();
+            slow.compact();
+            // Every merged cell has a value of 64 bytes, and a second worth of them may go at once
+            final long throttledMillis = expected.size() * 64L * 1000 / COMPACTION_BYTES_PER_SECOND - 1000;
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= throttledMillis);
+            assertContains(expected, fast);
+            assertContains(expected, slow);
+            assertEquals(fast.metrics().getSsTableCount(), slow.metrics().getSsTableCount());
+        }
+    }
+
+    private static void checkOverwrites(
+            @NotNull final File data,
+            @NotNull final Config config) throws IOException {
+        final List<ByteBuffer> keys = new ArrayList<>(KEYS);
+        for (int i = 0; i < KEYS; i++) {
+            keys.add(randomKey());
+        }
+
+        // Overwrite and remove keys reopening the DAO now and then
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int round = 0; round < 4; round++) {
+            try (DAO dao = new LsmDAO(data, config)) {
+                for (int i = 0; i < OPERATIONS / 4; i++) {
+                    final ByteBuffer key = keys.get(random.nextInt(KEYS));
+                    if (random.nextInt(8) == 0) {
+                        dao.remove(key);
+                        expected.remove(key);
+                    } else {
+                        final ByteBuffer value = randomBuffer(1 + random.nextInt(64));
+                        dao.upsert(key, value);
+                        expected.put(key, value);
+                    }
+                }
+                assertContains(expected, dao);
+            }
+        }
+
+        // Check after the major compaction too
+        try (DAO dao = new LsmDAO(data, config)) {
+            assertContains(expected, dao);
+            dao.compact();
+            assertContains(expected, dao);
+        }
+        try (DAO dao = new LsmDAO(data, config)) {
+            assertContains(expected, dao);
+        }
+    }
+
+    private static void assertContains(
+            @NotNull final NavigableMap<ByteBuffer, ByteBuffer> expected,
+            @NotNull final DAO dao) throws IOException {
+        final Iterator<Map.Entry<ByteBuffer, ByteBuffer>> expectedIter = expected.entrySet().iterator();
+        final Iterator<Record> actualIter = dao.iterator(ByteBuffer.allocate(0));
+        while (expectedIter.hasNext()) {
+            final Map.Entry<ByteBuffer, ByteBuffer> entry = expectedIter.next();
+            final Record actual = actualIter.next();
+            assertEquals(entry.getKey(), actual.getKey());
+            assertEquals(entry.getValue(), actual.getValue());
+        }
+        assertFalse(actualIter.hasNext());
+    }
+}
@@ -0,0 +1,152 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Multi-threaded stress tests for {@link DAO} implementations.
+ */
+class ConcurrencyTest extends TestBase {
+    private static final int THREADS = 8;
+    private static final int KEYS_PER_THREAD = 4096;
+
+    @Test
+    void parallelUpserts(@TempDir File data) throws Exception {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new ConcurrentSkipListMap<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try (DAO dao = DAOFactory.create(data)) {
+            // Fill from all the threads at once
+            final Collection<Future<?>> futures = new ArrayList<>(THREADS);
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int k = 0; k < KEYS_PER_THREAD; k++) {
+                        final ByteBuffer key = randomKey();
+                        final ByteBuffer value = randomValue();
+                        dao.upsert(key, value);
+                        expected.put(key, value);
+                    }
+                    return null;
+                }));
+            }
+            await(futures);
+
+            // Check the data
+            assertContains(expected, dao);
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        }
+
+        // Check the flushed data
+        try (DAO dao = DAOFactory.create(data)) {
+            assertContains(expected, dao);
+        }
+    }
+
+    @Test
+    void scansDuringUpserts(@TempDir File data) throws Exception {
+        final Collection<ByteBuffer> keys = new ArrayList<>(KEYS_PER_THREAD);
+        for (int i = 0; i < KEYS_PER_THREAD; i++) {
+            keys.add(randomKey());
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        try (DAO dao = DAOFactory.create(data)) {
+            final Collection<Future<?>> futures = new ArrayList<>(THREADS);
+
+            // Writers overwrite and remove the same keys
+            for (int i = 0; i < THREADS / 2; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int round = 0; round < 4; round++) {
+                        for (final ByteBuffer key : keys) {
+                            dao.upsert(key, randomValue());
+                        }
+                        for (final ByteBuffer key : keys) {
+                            dao.remove(key);
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            // Readers check that scans are sorted and contain no duplicates
+            final Collection<Future<?>> readers = new ArrayList<>(THREADS);
+            for (int i = 0; i < THREADS / 2; i++) {
+                readers.add(executor.submit(() -> {
+                    while (writing.get()) {
+                        final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+                        ByteBuffer previous = null;
+                        while (records.hasNext()) {
+                            final ByteBuffer key = records.next().getKey();
+                            assertTrue(keys.contains(key));
+                            if (previous != null) {
+                                assertTrue(previous.compareTo(key) < 0);
+                            }
+                            previous = key;
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            await(futures);
+            writing.set(false);
+            await(readers);
+
+            // Every key has been removed in the end
+            assertFalse(dao.iterator(ByteBuffer.allocate(0)).hasNext());
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        }
+    }
+
+    private static void await(@NotNull final Collection<Future<?>> futures) throws Exception {
+        for (final Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
+    private static void assertContains(
+            @NotNull final NavigableMap<ByteBuffer, ByteBuffer> expected,
+            @NotNull final DAO dao) throws IOException {
+        final Iterator<Map.Entry<ByteBuffer, ByteBuffer>> expectedIter = expected.entrySet().iterator();
+        final Iterator<Record> actualIter = dao.iterator(ByteBuffer.allocate(0));
+        while (expectedIter.hasNext()) {
+            final Map.Entry<ByteBuffer, ByteBuffer> entry = expectedIter.next();
+            final Record actual = actualIter.next();
+            assertEquals(entry.getKey(), actual.getKey());
+            assertEquals(entry.getValue(), actual.getValue());
+        }
+        assertFalse(actualIter.hasNext());
+    }
+}
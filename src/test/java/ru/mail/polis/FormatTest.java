@@ -0,0 +1,275 @@
+package ru.mail.polis;
+
+import com.google.common.collect.Iterators;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.stasmilke.Compression;
+import ru.mail.polis.stasmilke.Config;
+import ru.mail.polis.stasmilke.LsmDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the on-disk formats of {@link LsmDAO} tables.
+ */
+class FormatTest extends TestBase {
+    private static final int KEYS = 1024;
+
+    @Test
+    void legacyTables(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            expected.put(randomKey(), randomBuffer(32));
+        }
+        writeLegacyTable(new File(data, "1.dat"), expected);
+
+        final ByteBuffer removed = expected.firstKey();
+        try (DAO dao = DAOFactory.create(data)) {
+            checkContains(expected, dao);
+            dao.remove(removed);
+        }
+        expected.remove(removed);
+
+        // Newer tables are merged with the legacy ones
+        try (DAO dao = DAOFactory.create(data)) {
+            checkContains(expected, dao);
+            dao.compact();
+            checkContains(expected, dao);
+            assertThrows(NoSuchElementException.class, () -> dao.get(removed));
+        }
+    }
+
+    @Test
+    void absentKeys(@TempDir File data) throws IOException {
+        final List<ByteBuffer> keys = new ArrayList<>(KEYS);
+        final Config config = Config.builder(16 * 1024).build();
+        try (DAO dao = new LsmDAO(data, config)) {
+            for (int i = 0; i < KEYS; i++) {
+                final ByteBuffer key = randomKey();
+                keys.add(key);
+                dao.upsert(key, randomBuffer(32));
+            }
+        }
+
+        // Filters must never hide the keys which are there
+        try (DAO dao = new LsmDAO(data, config)) {
+            for (final ByteBuffer key : keys) {
+                dao.get(key);
+            }
+            for (int i = 0; i < KEYS; i++) {
+                final ByteBuffer key = randomKey();
+                assertThrows(NoSuchElementException.class, () -> dao.get(key));
+            }
+        }
+    }
+
+    @Test
+    void blocks(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        final Config config = Config.builder(64 * 1024).blockSize(256).build();
+        try (DAO dao = new LsmDAO(data, config)) {
+            for (int i = 0; i < KEYS; i++) {
+                final ByteBuffer key = randomKey();
+                // Some cells don't fit into a block
+                final ByteBuffer value = randomBuffer(i % 16 == 0 ? 1024 : 8);
+                dao.upsert(key, value);
+                expected.put(key, value);
+            }
+        }
+
+        try (DAO dao = new LsmDAO(data, config)) {
+            checkContains(expected, dao);
+            // Scans may start anywhere inside a block
+            for (int i = 0; i < 64; i++) {
+                final ByteBuffer from = randomKey();
+                final Iterator<Record> actual = dao.iterator(from);
+                for (final NavigableMap.Entry<ByteBuffer, ByteBuffer> entry : expected.tailMap(from).entrySet()) {
+                    final Record record = actual.next();
+                    assertEquals(entry.getKey(), record.getKey());
+                    assertEquals(entry.getValue(), record.getValue());
+                }
+                assertFalse(actual.hasNext());
+            }
+        }
+    }
+
+    @Test
+    void sharedPrefixes(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        final Config config = Config.builder(64 * 1024).blockSize(512).build();
+        final ByteBuffer prefix = randomBuffer(64);
+        try (DAO dao = new LsmDAO(data, config)) {
+            for (int i = 0; i < KEYS; i++) {
+                // Keys of different lengths which share prefixes of different lengths
+                final ByteBuffer key = join(prefix.duplicate().limit(i % 64), randomBuffer(1 + i % 3));
+                final ByteBuffer value = randomBuffer(16);
+                dao.upsert(key, value);
+                expected.put(key, value);
+            }
+        }
+
+        try (DAO dao = new LsmDAO(data, config)) {
+            checkContains(expected, dao);
+            for (final ByteBuffer from : expected.keySet()) {
+                assertEquals(from, dao.iterator(from).next().getKey());
+            }
+        }
+    }
+
+    @Test
+    void compression(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            // Values repeat much like documents do
+            final String document = String.format("{\"id\":%d,\"name\":\"user%d\",\"tags\":[\"a\",\"b\"]}", i, i % 7);
+            expected.put(randomKey(), ByteBuffer.wrap(document.repeat(1 + i % 4).getBytes(StandardCharsets.UTF_8)));
+        }
+
+        final EnumMap<Compression, Long> sizes = new EnumMap<>(Compression.class);
+        for (final Compression compression : Compression.values()) {
+            final File dir = new File(data, compression.name());
+            assertTrue(dir.mkdir());
+            final Config config = Config.builder(64 * 1024).compression(compression).build();
+            try (DAO dao = new LsmDAO(dir, config)) {
+                for (final NavigableMap.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+                    dao.upsert(entry.getKey(), entry.getValue());
+                }
+            }
+
+            try (DAO dao = new LsmDAO(dir, config)) {
+                checkContains(expected, dao);
+                final ByteBuffer from = expected.keySet().iterator().next();
+                assertEquals(expected.size(), Iterators.size(dao.iterator(from)));
+            }
+            long size = 0L;
+            for (final File file : dir.listFiles()) {
+                size += file.length();
+            }
+            sizes.put(compression, size);
+        }
+        assertTrue(sizes.get(Compression.LZ4) < sizes.get(Compression.NONE));
+        assertTrue(sizes.get(Compression.DEFLATE) < sizes.get(Compression.LZ4));
+    }
+
+    @Test
+    void olderTimestamps(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            expected.put(randomKey(), randomBuffer(32));
+        }
+        final Config config = Config.builder(Long.MAX_VALUE).blockSize(256).build();
+        // The first key is written last, so the others are older than the base timestamp of the table
+        try (DAO dao = new LsmDAO(data, config)) {
+            for (final NavigableMap.Entry<ByteBuffer, ByteBuffer> entry : expected.descendingMap().entrySet()) {
+                dao.upsert(entry.getKey(), entry.getValue());
+            }
+        }
+
+        try (DAO dao = new LsmDAO(data, config)) {
+            checkContains(expected, dao);
+        }
+    }
+
+    @Test
+    void tombstones(@TempDir File data) throws IOException {
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            expected.put(randomKey(), randomBuffer(32));
+        }
+        // Tombstones outlive the compaction below
+        final Config config = Config.builder(Long.MAX_VALUE)
+                .blockSize(256)
+                .tombstoneGraceMillis(TimeUnit.HOURS.toMillis(1))
+                .build();
+        try (DAO dao = new LsmDAO(data, config)) {
+            for (final NavigableMap.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+                dao.upsert(entry.getKey(), entry.getValue());
+            }
+        }
+
+        // Every second key and some absent ones are removed, the first key last
+        final List<ByteBuffer> removed = new ArrayList<>();
+        try (DAO dao = new LsmDAO(data, config)) {
+            for (final ByteBuffer key : new ArrayList<>(expected.descendingKeySet())) {
+                final ByteBuffer target = removed.size() % 2 == 0 ? key : randomKey();
+                expected.remove(target);
+                dao.remove(target);
+                removed.add(target);
+            }
+        }
+
+        try (DAO dao = new LsmDAO(data, config)) {
+            checkRemoved(expected, removed, dao);
+            dao.compact();
+            checkRemoved(expected, removed, dao);
+        }
+    }
+
+    private static void checkRemoved(
+            @NotNull final NavigableMap<ByteBuffer, ByteBuffer> expected,
+            @NotNull final List<ByteBuffer> removed,
+            @NotNull final DAO dao) throws IOException {
+        checkContains(expected, dao);
+        for (final ByteBuffer key : removed) {
+            assertThrows(NoSuchElementException.class, () -> dao.get(key));
+        }
+    }
+
+    private static void checkContains(
+            @NotNull final NavigableMap<ByteBuffer, ByteBuffer> expected,
+            @NotNull final DAO dao) throws IOException {
+        for (final NavigableMap.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), dao.get(entry.getKey()));
+        }
+        assertEquals(expected.size(), Iterators.size(dao.iterator(ByteBuffer.allocate(0))));
+    }
+
+    /**
+     * Writes the cells followed by the offsets of all the rows but the first one and by the number of rows.
+     */
+    private static void writeLegacyTable(
+            @NotNull final File file,
+            @NotNull final NavigableMap<ByteBuffer, ByteBuffer> records) throws IOException {
+        final List<Long> offsets = new ArrayList<>(records.size());
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE)) {
+            long timestamp = 1L;
+            for (final NavigableMap.Entry<ByteBuffer, ByteBuffer> entry : records.entrySet()) {
+                final ByteBuffer cell = ByteBuffer.allocate(
+                        Integer.BYTES * 2 + Long.BYTES + entry.getKey().remaining() + entry.getValue().remaining());
+                cell.putInt(entry.getKey().remaining())
+                        .put(entry.getKey().duplicate())
+                        .putLong(timestamp++)
+                        .putInt(entry.getValue().remaining())
+                        .put(entry.getValue().duplicate());
+                channel.write(cell.rewind());
+                offsets.add(channel.position());
+            }
+            final ByteBuffer footer = ByteBuffer.allocate(Long.BYTES * (offsets.size() - 1) + Integer.BYTES);
+            for (int i = 0; i < offsets.size() - 1; i++) {
+                footer.putLong(offsets.get(i));
+            }
+            footer.putInt(records.size());
+            channel.write(footer.rewind());
+        }
+    }
+}
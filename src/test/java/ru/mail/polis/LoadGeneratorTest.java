@@ -0,0 +1,58 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Workload.Operation;
+import ru.mail.polis.stasmilke.Config;
+import ru.mail.polis.stasmilke.LsmDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks {@link LoadGenerator} and its latency histograms.
+ */
+class LoadGeneratorTest {
+    private static final int RECORDS = 2_000;
+    private static final int OPERATIONS = 2_000;
+
+    @Test
+    void allWorkloads(@TempDir File data) throws IOException {
+        try (DAO dao = new LsmDAO(data, Config.builder(256 * 1024).build())) {
+            final LoadGenerator generator = new LoadGenerator(dao, 2);
+            final Map<Operation, LatencyHistogram> load = generator.load(RECORDS);
+            assertEquals(RECORDS, load.get(Operation.INSERT).count());
+
+            for (final Workload workload : Workload.values()) {
+                final Map<Operation, LatencyHistogram> run =
+                        generator.run(workload, workload.keyChooser(), OPERATIONS);
+                assertEquals(OPERATIONS, run.values().stream().mapToLong(LatencyHistogram::count).sum());
+                for (final Operation operation : Operation.values()) {
+                    assertEquals(workload.share(operation) > 0.0, run.containsKey(operation),
+                            workload + " " + operation);
+                }
+            }
+        }
+    }
+
+    @Test
+    void percentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 1_000_000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(1_000_000, histogram.count());
+        assertEquals(1_000_000, histogram.max());
+        assertEquals(500_000.5, histogram.mean());
+        for (final double percentile : new double[]{1.0, 50.0, 99.0, 99.9}) {
+            final double expected = percentile * 10_000;
+            final long actual = histogram.percentile(percentile);
+            assertTrue(actual >= expected && actual <= expected * 1.02, percentile + ": " + actual);
+        }
+        assertEquals(1_000_000, histogram.percentile(100.0));
+    }
+}
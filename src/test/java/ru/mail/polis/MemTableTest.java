@@ -0,0 +1,68 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.stasmilke.Config;
+import ru.mail.polis.stasmilke.LsmDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Checks the memtable of {@link LsmDAO}, which lives off heap.
+ */
+class MemTableTest extends TestBase {
+    private static final int KEYS = 12 * 1024;
+    private static final int VALUE_LENGTH = 4 * 1024;
+
+    @Test
+    void exceedsHeap(@TempDir File data) throws IOException {
+        // More than half of the heap sits in a single memtable
+        final Config config = Config.builder(Long.MAX_VALUE).build();
+        try (DAO dao = new LsmDAO(data, config)) {
+            for (int i = 0; i < KEYS; i++) {
+                dao.upsert(key(i), value(i));
+            }
+            // Every second key gets a newer version
+            for (int i = 0; i < KEYS; i += 2) {
+                dao.upsert(key(i), value(-i));
+            }
+            check(dao);
+        }
+
+        try (DAO dao = new LsmDAO(data, config)) {
+            check(dao);
+        }
+    }
+
+    private static void check(@NotNull final DAO dao) throws IOException {
+        final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+        for (int i = 0; i < KEYS; i++) {
+            final Record record = records.next();
+            assertEquals(key(i), record.getKey());
+            assertEquals(value(i % 2 == 0 ? -i : i), record.getValue());
+        }
+        assertFalse(records.hasNext());
+        assertEquals(value(-KEYS / 2), dao.get(key(KEYS / 2)));
+    }
+
+    @NotNull
+    private static ByteBuffer key(final int index) {
+        return ByteBuffer.wrap(String.format("%08d", index).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @NotNull
+    private static ByteBuffer value(final int seed) {
+        final byte[] result = new byte[VALUE_LENGTH];
+        Arrays.fill(result, (byte) seed);
+        return ByteBuffer.wrap(result).putInt(0, seed);
+    }
+}
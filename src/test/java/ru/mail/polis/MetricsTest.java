@@ -0,0 +1,81 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.stasmilke.Config;
+import ru.mail.polis.stasmilke.LsmDAO;
+import ru.mail.polis.stasmilke.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the metrics of {@link LsmDAO}.
+ */
+class MetricsTest extends TestBase {
+    private static final int KEYS = 1000;
+
+    @Test
+    void operations(@TempDir File data) throws IOException {
+        final Config config = Config.builder(64 * 1024).build();
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            final ByteBuffer[] keys = new ByteBuffer[KEYS];
+            for (int i = 0; i < KEYS; i++) {
+                keys[i] = randomKey();
+                dao.upsert(keys[i], randomValue());
+            }
+            for (int i = 0; i < KEYS / 2; i++) {
+                dao.remove(keys[i]);
+            }
+            for (final ByteBuffer key : keys) {
+                assertThrows(NoSuchElementException.class, () -> dao.get(randomKey()));
+                dao.range(key, null).hasNext();
+            }
+            final Iterator<Record> all = dao.iterator(ByteBuffer.allocate(0));
+            while (all.hasNext()) {
+                all.next();
+            }
+            dao.compact();
+
+            final Metrics metrics = dao.metrics();
+            assertEquals(KEYS, metrics.getUpserts().getCount());
+            assertEquals(KEYS / 2, metrics.getRemoves().getCount());
+            assertEquals(KEYS, metrics.getGets().getCount());
+            assertEquals(KEYS + 1, metrics.getRanges().getCount());
+            assertTrue(metrics.getUpserts().getMaxMicros() >= metrics.getUpserts().getP50Micros());
+            assertTrue(metrics.getFlushes() > 0);
+            assertTrue(metrics.getFlushedBytes() > 0);
+            assertEquals(1, metrics.getCompactions());
+            assertEquals(1, metrics.getSsTableCount());
+            assertEquals(metrics.getCompactedBytes(), metrics.getSsTableBytes());
+            assertTrue(metrics.getScannedTombstones() >= KEYS / 2);
+            assertTrue(metrics.getTablesProbedPerGet() < 1.0);
+        }
+    }
+
+    @Test
+    void jmx(@TempDir File data) throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName("ru.mail.polis.stasmilke:type=LsmDAO,name=\"jmx\"");
+        try (DAO dao = new LsmDAO(data, Config.builder(64 * 1024).metricsName("jmx").build())) {
+            dao.upsert(randomKey(), randomValue());
+            final CompositeData upserts = (CompositeData) server.getAttribute(name, "Upserts");
+            assertEquals(1L, upserts.get("count"));
+            assertEquals(0, server.getAttribute(name, "SsTableCount"));
+        }
+        assertFalse(server.isRegistered(name));
+    }
+}
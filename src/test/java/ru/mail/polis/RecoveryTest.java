@@ -0,0 +1,144 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.stasmilke.Config;
+import ru.mail.polis.stasmilke.LsmDAO;
+import ru.mail.polis.stasmilke.SyncPolicy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that {@link LsmDAO} recovers the writes of a DAO which hasn't been closed.
+ */
+class RecoveryTest extends TestBase {
+    private static final Config CONFIG = Config.builder(1024 * 1024)
+            .syncPolicy(SyncPolicy.ALWAYS)
+            .build();
+
+    @Test
+    void unclosed(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+        final ByteBuffer removed = randomKey();
+
+        // Simulate a crash: the DAO is never closed
+        final DAO crashed = new LsmDAO(data, CONFIG);
+        crashed.upsert(key, value);
+        crashed.upsert(removed, randomValue());
+        crashed.remove(removed);
+
+        try (DAO dao = new LsmDAO(data, CONFIG)) {
+            assertEquals(value, dao.get(key));
+            assertThrows(NoSuchElementException.class, () -> dao.get(removed));
+        }
+        try (DAO dao = new LsmDAO(data, CONFIG)) {
+            assertEquals(value, dao.get(key));
+        }
+    }
+
+    @Test
+    void tornTail(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+
+        final DAO crashed = new LsmDAO(data, CONFIG);
+        crashed.upsert(key, value);
+
+        // A half-written record must be ignored
+        final File[] logs = data.listFiles((dir, name) -> name.endsWith(".log"));
+        assertEquals(1, logs.length);
+        try (FileChannel channel = FileChannel.open(logs[0].toPath(), StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 1, 0, 42, 42}));
+        }
+
+        try (DAO dao = new LsmDAO(data, CONFIG)) {
+            assertEquals(value, dao.get(key));
+        }
+    }
+
+    @Test
+    void interruptedFlush(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKey();
+        final ByteBuffer value = randomValue();
+
+        final DAO crashed = new LsmDAO(data, CONFIG);
+        crashed.upsert(key, value);
+
+        // The process dies while the table of the log is being written
+        final File[] logs = data.listFiles((dir, name) -> name.endsWith(".log"));
+        assertEquals(1, logs.length);
+        final String generation = logs[0].getName().substring(0, logs[0].getName().indexOf(".log"));
+        for (final String name : new String[]{generation + ".temp", generation + ".temp.hashes.tmp"}) {
+            try (FileChannel channel = FileChannel.open(new File(data, name).toPath(),
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[]{42, 42, 42}));
+            }
+        }
+
+        try (DAO dao = new LsmDAO(data, CONFIG)) {
+            assertEquals(value, dao.get(key));
+        }
+        try (DAO dao = new LsmDAO(data, CONFIG)) {
+            assertEquals(value, dao.get(key));
+        }
+        assertEquals(0, data.listFiles((dir, name) -> name.contains(".temp")).length);
+    }
+
+    @Test
+    void groupCommit(@TempDir File data) throws Exception {
+        final int threads = 8;
+        final int keysPerThread = 256;
+        final Config config = Config.builder(1024 * 1024)
+                .syncPolicy(SyncPolicy.GROUP)
+                .build();
+
+        // Every acknowledged write must survive the crash
+        final Map<ByteBuffer, ByteBuffer> expected = new ConcurrentHashMap<>();
+        final DAO crashed = new LsmDAO(data, config);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final Collection<Future<?>> futures = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int k = 0; k < keysPerThread; k++) {
+                        final ByteBuffer key = randomKey();
+                        final ByteBuffer value = randomValue();
+                        crashed.upsert(key, value);
+                        expected.put(key, value);
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        }
+
+        try (DAO dao = new LsmDAO(data, config)) {
+            for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+                assertEquals(entry.getValue(), dao.get(entry.getKey()));
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.stasmilke.CompactionStrategy;
+import ru.mail.polis.stasmilke.Config;
+import ru.mail.polis.stasmilke.LsmDAO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that compaction drops the tombstones which have nothing left to shadow.
+ */
+class TombstoneTest extends TestBase {
+    private static final int KEYS = 100;
+
+    @Test
+    void droppedAtBottom(@TempDir File data) throws IOException {
+        final Config config = config().build();
+        fill(data, config, 0, KEYS, 1);
+        removeAll(data, config);
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            dao.compact();
+            assertEquals(0, dao.metrics().getSsTableCount());
+            assertFalse(dao.iterator(ByteBuffer.allocate(0)).hasNext());
+        }
+    }
+
+    @Test
+    void keptWithinGracePeriod(@TempDir File data) throws IOException {
+        final Config config = config().tombstoneGraceMillis(TimeUnit.HOURS.toMillis(1)).build();
+        fill(data, config, 0, KEYS, 1);
+        removeAll(data, config);
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            dao.compact();
+            assertEquals(1, dao.metrics().getSsTableCount());
+            assertFalse(dao.iterator(ByteBuffer.allocate(0)).hasNext());
+        }
+    }
+
+    @Test
+    void keptAboveOlderTables(@TempDir File data) throws IOException {
+        // The big table stays out of the tier of the small ones
+        final Config config = Config.builder(1024 * 1024)
+                .compactionStrategy(CompactionStrategy.sizeTiered(2, 32, 0.5, 1.5))
+                .build();
+        fill(data, config, 0, KEYS * 5, 1024);
+        fill(data, config, 0, KEYS, 1);
+        removeAll(data, config);
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            assertEquals(2, dao.metrics().getSsTableCount());
+            for (int i = 0; i < KEYS * 5; i++) {
+                final ByteBuffer key = key(i);
+                if (i < KEYS) {
+                    assertThrows(NoSuchElementException.class, () -> dao.get(key));
+                } else {
+                    assertEquals(1024, dao.get(key).remaining());
+                }
+            }
+        }
+    }
+
+    @Test
+    void densityTrigger(@TempDir File data) throws IOException {
+        final Config config = config().tombstoneCompactionRatio(0.5).build();
+        fill(data, config, 0, KEYS * 2, 1);
+        // Only half of the keys are removed, but the new table is all tombstones
+        try (DAO dao = new LsmDAO(data, config)) {
+            for (int i = 0; i < KEYS; i++) {
+                dao.remove(key(i));
+            }
+        }
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            assertEquals(1, dao.metrics().getSsTableCount());
+            assertEquals(key(KEYS), dao.iterator(ByteBuffer.allocate(0)).next().getKey());
+        }
+    }
+
+    /**
+     * Never compacts by itself.
+     */
+    @NotNull
+    private static Config.Builder config() {
+        return Config.builder(1024 * 1024).compactionStrategy(CompactionStrategy.full(Integer.MAX_VALUE));
+    }
+
+    private static void fill(
+            @NotNull final File data,
+            @NotNull final Config config,
+            final int from,
+            final int to,
+            final int valueLength) throws IOException {
+        try (DAO dao = new LsmDAO(data, config)) {
+            for (int i = from; i < to; i++) {
+                dao.upsert(key(i), ByteBuffer.allocate(valueLength));
+            }
+        }
+    }
+
+    private static void removeAll(
+            @NotNull final File data,
+            @NotNull final Config config) throws IOException {
+        try (DAO dao = new LsmDAO(data, config)) {
+            for (int i = 0; i < KEYS; i++) {
+                dao.remove(key(i));
+            }
+        }
+    }
+
+    @NotNull
+    private static ByteBuffer key(final int index) {
+        return ByteBuffer.wrap(String.format("%04d", index).getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,106 @@
+package ru.mail.polis;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.stasmilke.CompactionStrategy;
+import ru.mail.polis.stasmilke.Config;
+import ru.mail.polis.stasmilke.LsmDAO;
+import ru.mail.polis.stasmilke.Trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the traces of {@link LsmDAO} reads.
+ */
+class TraceTest extends TestBase {
+    private static final int KEYS = 100;
+    private static final int TABLES = 3;
+
+    @Test
+    void range(@TempDir File data) throws IOException {
+        try (LsmDAO dao = open(data)) {
+            final Trace trace = new Trace();
+            final Iterator<Record> records = dao.range(key(0), key(KEYS), trace);
+            int alive = 0;
+            while (records.hasNext()) {
+                records.next();
+                alive++;
+            }
+            assertEquals(KEYS / 2, alive);
+            assertEquals(TABLES, trace.getTables().size());
+            // Every table but the oldest one shadows the versions of the older ones
+            assertEquals(KEYS * (TABLES - 1), trace.getShadowedCells());
+            assertEquals(KEYS / 2, trace.getTombstones());
+            for (final Trace.TableTrace table : trace.getTables()) {
+                assertTrue(table.getBlocks() > 0);
+                assertTrue(table.getBytes() > 0);
+            }
+        }
+    }
+
+    @Test
+    void get(@TempDir File data) throws IOException {
+        try (LsmDAO dao = open(data)) {
+            final Trace trace = new Trace();
+            assertEquals(value(TABLES - 1), dao.get(key(KEYS - 1), trace));
+            // The newest table has the key, so the others aren't read
+            assertEquals(1, trace.getTables().size());
+            assertEquals(1, trace.getTables().get(0).getBlocks());
+            assertTrue(trace.getTables().get(0).getProbes() > 0);
+
+            final Trace miss = new Trace();
+            assertFalse(dao.range(key(KEYS), null, miss).hasNext());
+            assertEquals(0, miss.getTombstones());
+        }
+    }
+
+    @Test
+    void sampled(@TempDir File data) throws IOException {
+        final Config config = Config.builder(1024 * 1024).traceSampling(1.0).build();
+        try (DAO dao = new LsmDAO(data, config)) {
+            dao.upsert(key(0), value(0));
+            assertEquals(value(0), dao.get(key(0)));
+            final Iterator<Record> records = dao.range(key(0), key(1));
+            assertEquals(key(0), records.next().getKey());
+            assertFalse(records.hasNext());
+        }
+    }
+
+    /**
+     * Writes every key to every table, the newest one removes every second key.
+     */
+    private static LsmDAO open(final File data) throws IOException {
+        final Config config = Config.builder(1024 * 1024)
+                .blockSize(256)
+                .compactionStrategy(CompactionStrategy.full(Integer.MAX_VALUE))
+                .build();
+        for (int table = 0; table < TABLES; table++) {
+            try (DAO dao = new LsmDAO(data, config)) {
+                for (int i = 0; i < KEYS; i++) {
+                    if (table == TABLES - 1 && i % 2 == 0) {
+                        dao.remove(key(i));
+                    } else {
+                        dao.upsert(key(i), value(table));
+                    }
+                }
+            }
+        }
+        return new LsmDAO(data, config);
+    }
+
+    private static ByteBuffer key(final int index) {
+        return ByteBuffer.wrap(String.format("%04d", index).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static ByteBuffer value(final int table) {
+        return ByteBuffer.wrap(("value" + table).getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,77 @@
+package ru.mail.polis;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.stasmilke.BlockCache;
+import ru.mail.polis.stasmilke.Config;
+import ru.mail.polis.stasmilke.LsmDAO;
+import ru.mail.polis.stasmilke.WriteBufferManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks {@link LsmDAO}s sharing a {@link WriteBufferManager}.
+ */
+class WriteBufferManagerTest extends TestBase {
+    private static final int KEYS = 4096;
+    private static final long BUDGET = 256 * 1024;
+
+    @Test
+    void sharedBudget(@TempDir File data) throws IOException {
+        final WriteBufferManager manager = WriteBufferManager.create(BUDGET);
+        // The memtables would never be flushed on their own
+        final Config config = Config.builder(Long.MAX_VALUE).writeBufferManager(manager).build();
+        final File first = new File(data, "first");
+        final File second = new File(data, "second");
+        assertTrue(first.mkdir());
+        assertTrue(second.mkdir());
+        final Map<ByteBuffer, ByteBuffer> firstExpected = new TreeMap<>();
+        final Map<ByteBuffer, ByteBuffer> secondExpected = new TreeMap<>();
+        try (DAO firstDao = new LsmDAO(first, config);
+             DAO secondDao = new LsmDAO(second, config)) {
+            for (int i = 0; i < KEYS; i++) {
+                final ByteBuffer key = randomKey();
+                final ByteBuffer value = randomBuffer(256);
+                if (i % 2 == 0) {
+                    firstDao.upsert(key, value);
+                    firstExpected.put(key, value);
+                } else {
+                    secondDao.upsert(key, value);
+                    secondExpected.put(key, value);
+                }
+                // Writers wait for the flushes once the budget is over, so it is exceeded by the slab of a write
+                // at most, which is no bigger than the table it is added to
+                assertTrue(manager.memTableUsage() <= BUDGET * 2 + 8 * 1024);
+            }
+
+            checkContains(firstExpected, firstDao);
+            checkContains(secondExpected, secondDao);
+        }
+        assertEquals(0L, manager.memTableUsage());
+        assertTrue(first.list().length > 1);
+        assertTrue(second.list().length > 1);
+    }
+
+    @Test
+    void cacheTakesItsShare() {
+        final BlockCache cache = BlockCache.lru(BUDGET, false);
+        assertThrows(IllegalArgumentException.class, () -> WriteBufferManager.create(BUDGET, cache));
+    }
+
+    private static void checkContains(
+            @NotNull final Map<ByteBuffer, ByteBuffer> expected,
+            @NotNull final DAO dao) throws IOException {
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), dao.get(entry.getKey()));
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks which tables a lookup of {@link LsmDAO} reads.
+ */
+class FindTest {
+    private static final int KEYS = 100;
+    private static final int TABLES = 3;
+
+    @Test
+    void memTableHit(@TempDir File data) throws IOException {
+        final Config config = config(Long.MAX_VALUE).build();
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            dao.upsert(key(0), value(0));
+        }
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            dao.upsert(key(0), value(1));
+            final Trace trace = new Trace();
+            assertEquals(value(1), dao.get(key(0), trace));
+            // The table on disk has the key too, but it isn't even filtered
+            assertTrue(trace.getTables().isEmpty());
+            assertEquals(0, trace.getFilteredTables());
+            assertEquals(0.0, dao.metrics().getTablesProbedPerGet());
+        }
+    }
+
+    @Test
+    void tombstoneHidesOlderTable(@TempDir File data) throws IOException {
+        final Config config = config(Long.MAX_VALUE).build();
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            dao.upsert(key(0), value(0));
+        }
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            dao.remove(key(0));
+            dao.upsert(key(1), value(1));
+        }
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            final Trace trace = new Trace();
+            assertThrows(NoSuchElementException.class, () -> dao.get(key(0), trace));
+            // The lookup stops at the newest table
+            assertEquals(1, trace.getTables().size());
+            assertEquals(2, trace.getTables().get(0).getGeneration());
+        }
+    }
+
+    @Test
+    void frozenMemTableHit(@TempDir File data) throws IOException, InterruptedException {
+        final Config config = config(1024).build();
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            dao.upsert(key(0), value(0));
+        }
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            final CountDownLatch flushing = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            dao.onFlusher(() -> {
+                flushing.countDown();
+                awaitUninterruptibly(release);
+            });
+            flushing.await();
+            try {
+                // The value is over the threshold, so the table is frozen right away
+                final ByteBuffer big = ByteBuffer.allocate(4 * 1024);
+                dao.upsert(key(0), big);
+                assertEquals(0L, dao.memTableSize());
+                assertEquals(0L, dao.metrics().getFlushes());
+                final Trace trace = new Trace();
+                assertEquals(big, dao.get(key(0), trace));
+                assertTrue(trace.getTables().isEmpty());
+                assertEquals(0, trace.getFilteredTables());
+            } finally {
+                release.countDown();
+            }
+        }
+    }
+
+    @Test
+    void bloomFilterMiss(@TempDir File data) throws IOException {
+        final Config config = config(Long.MAX_VALUE).build();
+        // Every table spans all the keys, but has only the even ones
+        for (int table = 0; table < TABLES; table++) {
+            try (LsmDAO dao = new LsmDAO(data, config)) {
+                for (int i = 0; i < KEYS * 2; i += 2) {
+                    dao.upsert(key(i), value(table));
+                }
+            }
+        }
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            int filtered = 0;
+            for (int i = 1; i < KEYS * 2; i += 2) {
+                final Trace trace = new Trace();
+                final ByteBuffer key = key(i);
+                assertThrows(NoSuchElementException.class, () -> dao.get(key, trace));
+                assertEquals(TABLES, trace.getFilteredTables() + trace.getTables().size());
+                if (trace.getTables().isEmpty()) {
+                    filtered++;
+                }
+            }
+            // False positives are rare
+            assertTrue(filtered > KEYS * 9 / 10);
+        }
+    }
+
+    @NotNull
+    private static Config.Builder config(final long flushThreshold) {
+        return Config.builder(flushThreshold).compactionStrategy(CompactionStrategy.full(Integer.MAX_VALUE));
+    }
+
+    private static void awaitUninterruptibly(@NotNull final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @NotNull
+    private static ByteBuffer key(final int index) {
+        return ByteBuffer.wrap(String.format("%04d", index).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @NotNull
+    private static ByteBuffer value(final int index) {
+        return ByteBuffer.wrap(String.format("value%d", index).getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,114 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks the background flushes of {@link LsmDAO} holding them back on the flusher thread.
+ */
+class FlushTest {
+    private static final int FLUSH_THRESHOLD = 1024;
+    private static final int VALUE_LENGTH = 4 * 1024;
+
+    @Test
+    void writersWaitForFlush(@TempDir File data) throws Exception {
+        final Config config = Config.builder(FLUSH_THRESHOLD).maxPendingFlushes(1).build();
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            final CountDownLatch release = holdFlushes(dao);
+            try {
+                // Every value is over the threshold, so every write freezes the table
+                dao.upsert(key(0), value(0));
+                final CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+                    try {
+                        dao.upsert(key(1), value(1));
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                assertThrows(TimeoutException.class, () -> writer.get(200, TimeUnit.MILLISECONDS));
+
+                release.countDown();
+                writer.get(10, TimeUnit.SECONDS);
+            } finally {
+                release.countDown();
+            }
+            assertEquals(value(0), dao.get(key(0)));
+            assertEquals(value(1), dao.get(key(1)));
+        }
+    }
+
+    @Test
+    void readsFromFrozenTables(@TempDir File data) throws IOException, InterruptedException, ExecutionException {
+        final Config config = Config.builder(FLUSH_THRESHOLD).maxPendingFlushes(2).build();
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            final CountDownLatch release = holdFlushes(dao);
+            try {
+                dao.upsert(key(0), value(0));
+                dao.upsert(key(1), value(1));
+                // Both tables wait for the flusher and nothing is left in the current one
+                assertEquals(0L, dao.memTableSize());
+                assertEquals(0, dao.metrics().getSsTableCount());
+                assertEquals(value(0), dao.get(key(0)));
+                assertEquals(value(1), dao.get(key(1)));
+                final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+                assertEquals(key(0), records.next().getKey());
+                assertEquals(key(1), records.next().getKey());
+                assertFalse(records.hasNext());
+            } finally {
+                release.countDown();
+            }
+            // Flushes go on in order, so this runs after both of them
+            dao.onFlusher(() -> { }).get();
+            assertEquals(2, dao.metrics().getSsTableCount());
+            assertEquals(value(0), dao.get(key(0)));
+        }
+    }
+
+    /**
+     * Blocks the flusher thread until the returned latch is released.
+     */
+    @NotNull
+    private static CountDownLatch holdFlushes(@NotNull final LsmDAO dao) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        dao.onFlusher(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        started.await();
+        return release;
+    }
+
+    @NotNull
+    private static ByteBuffer key(final int index) {
+        return ByteBuffer.wrap(String.format("key%d", index).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @NotNull
+    private static ByteBuffer value(final int index) {
+        final ByteBuffer result = ByteBuffer.allocate(VALUE_LENGTH);
+        result.putInt(0, index);
+        return result;
+    }
+}
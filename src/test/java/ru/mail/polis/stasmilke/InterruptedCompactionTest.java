@@ -0,0 +1,225 @@
+package ru.mail.polis.stasmilke;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reopens {@link LsmDAO} after a crash in the middle of a compaction, which is simulated by hand.
+ */
+class InterruptedCompactionTest {
+    private static final int KEYS = 1000;
+    private static final int TABLES = 3;
+
+    @Test
+    void finishedOnStartup(@TempDir File data) throws IOException {
+        final Config config = Config.builder(Long.MAX_VALUE).build();
+        fill(data, config);
+
+        // Level zero output is split in two, each in place of one of the newest inputs
+        final List<Cell> merged = merge(data, config);
+        final int half = merged.size() / 2;
+        SSTable.serialize(temp(data, 3), merged.subList(0, half).iterator(), config);
+        SSTable.serialize(temp(data, 2), merged.subList(half, merged.size()).iterator(), config);
+        final CompactionManifest manifest = new CompactionManifest(data);
+        manifest.move(temp(data, 3), table(data, 3));
+        manifest.move(temp(data, 2), table(data, 2));
+        manifest.delete(table(data, 1));
+        manifest.commit();
+        // The process dies after the first output has replaced its input
+        Files.move(temp(data, 3).toPath(), table(data, 3).toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            check(dao);
+            assertEquals(2, dao.metrics().getSsTableCount());
+        }
+        assertFalse(new File(data, CompactionManifest.NAME).exists());
+        assertFalse(table(data, 1).exists());
+    }
+
+    @Test
+    void droppedBeforeManifest(@TempDir File data) throws IOException {
+        final Config config = Config.builder(Long.MAX_VALUE).build();
+        fill(data, config);
+
+        // The process dies with the outputs written but not recorded yet
+        final List<Cell> merged = merge(data, config);
+        SSTable.serialize(temp(data, 3), merged.iterator(), config);
+
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            check(dao);
+            assertEquals(TABLES, dao.metrics().getSsTableCount());
+            assertFalse(temp(data, 3).exists());
+            // The same generation is free to be written again
+            dao.compact();
+            check(dao);
+            assertEquals(1, dao.metrics().getSsTableCount());
+        }
+    }
+
+    @Test
+    void droppedTombstonesStayDropped(@TempDir File data) throws IOException {
+        final Config config = Config.builder(Long.MAX_VALUE).build();
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            for (int i = 0; i < KEYS; i++) {
+                dao.upsert(key(i), value(i, 1));
+            }
+        }
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            for (int i = 0; i < KEYS; i += 2) {
+                dao.remove(key(i));
+            }
+        }
+
+        // Bottommost output has no tombstones left to shadow the older input
+        final List<Cell> alive = new ArrayList<>();
+        for (final Cell cell : merge(data, config, 2)) {
+            if (!cell.getValue().isTombstone()) {
+                alive.add(cell);
+            }
+        }
+        SSTable.serialize(temp(data, 2), alive.iterator(), config);
+        final CompactionManifest manifest = new CompactionManifest(data);
+        manifest.move(temp(data, 2), table(data, 2));
+        manifest.delete(table(data, 1));
+        manifest.commit();
+        // The process dies after the output has replaced the newest input, but before the older one is deleted
+        manifest.moveOutputs();
+
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+            for (int i = 1; i < KEYS; i += 2) {
+                final Record record = records.next();
+                assertEquals(key(i), record.getKey());
+                assertEquals(value(i, 1), record.getValue());
+            }
+            assertFalse(records.hasNext());
+            assertEquals(1, dao.metrics().getSsTableCount());
+        }
+    }
+
+    @Test
+    void failedRangeLeavesNothing(@TempDir File data) throws IOException {
+        final Config config = Config.builder(Long.MAX_VALUE)
+                .compactionStrategy(CompactionStrategy.full(Integer.MAX_VALUE))
+                .compactionThreads(TABLES)
+                .blockSize(16)
+                .build();
+        fill(data, config);
+
+        try (LsmDAO dao = new LsmDAO(data, config)) {
+            // A stale file takes the name of one of the level zero outputs, so only its range fails
+            assertTrue(temp(data, 2).createNewFile());
+            assertThrows(IOException.class, dao::compact);
+            final String[] left = data.list((dir, name) -> name.contains(".temp") || name.endsWith(".tmp"));
+            assertEquals(0, left.length, String.join(", ", left));
+            check(dao);
+
+            // Nothing is in the way of the next attempt
+            dao.compact();
+            check(dao);
+            assertEquals(TABLES, dao.metrics().getSsTableCount());
+        }
+    }
+
+    /**
+     * Writes a table per generation, each newer one overwriting a part of the keys.
+     */
+    private static void fill(
+            @NotNull final File data,
+            @NotNull final Config config) throws IOException {
+        for (int generation = 1; generation <= TABLES; generation++) {
+            try (LsmDAO dao = new LsmDAO(data, config)) {
+                for (int i = 0; i < KEYS; i++) {
+                    if (i % generation == 0) {
+                        dao.upsert(key(i), value(i, generation));
+                    }
+                }
+            }
+            assertTrue(table(data, generation).exists());
+        }
+    }
+
+    @NotNull
+    private static List<Cell> merge(
+            @NotNull final File data,
+            @NotNull final Config config) throws IOException {
+        return merge(data, config, TABLES);
+    }
+
+    @NotNull
+    private static List<Cell> merge(
+            @NotNull final File data,
+            @NotNull final Config config,
+            final int tables) throws IOException {
+        final List<SSTable> inputs = new ArrayList<>();
+        final List<Iterator<Cell>> iterators = new ArrayList<>();
+        for (int generation = tables; generation > 0; generation--) {
+            final SSTable input = new SSTable(table(data, generation), generation, 0, config);
+            inputs.add(input);
+            iterators.add(input.iterator(ByteBuffer.allocate(0)));
+        }
+        final List<Cell> merged = new ArrayList<>();
+        new MergeIterator(iterators, false, null, null).forEachRemaining(merged::add);
+        for (final SSTable input : inputs) {
+            input.close();
+        }
+        return merged;
+    }
+
+    private static void check(@NotNull final LsmDAO dao) throws IOException {
+        final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+        for (int i = 0; i < KEYS; i++) {
+            int generation = TABLES;
+            while (i % generation != 0) {
+                generation--;
+            }
+            final Record record = records.next();
+            assertEquals(key(i), record.getKey());
+            assertEquals(value(i, generation), record.getValue());
+        }
+        assertFalse(records.hasNext());
+    }
+
+    @NotNull
+    private static File table(
+            @NotNull final File data,
+            final int generation) {
+        return new File(data, generation + ".dat");
+    }
+
+    @NotNull
+    private static File temp(
+            @NotNull final File data,
+            final int generation) {
+        return new File(data, generation + ".temp");
+    }
+
+    @NotNull
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("key%05d", i).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @NotNull
+    private static ByteBuffer value(
+            final int i,
+            final int generation) {
+        return ByteBuffer.wrap(String.format("value%05d_%d", i, generation).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,150 @@
+package ru.mail.polis.stasmilke;
+
+import com.google.common.collect.ImmutableList;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link MergeIterator}.
+ */
+class MergeIteratorTest {
+    private static final int KEYS = 60;
+
+    @Test
+    void noSources() {
+        final Iterator<Cell> merged = new MergeIterator(ImmutableList.of(), true, null, null);
+        assertFalse(merged.hasNext());
+        assertThrows(NoSuchElementException.class, merged::next);
+    }
+
+    @Test
+    void oneSource() {
+        checkMerge(1);
+    }
+
+    @Test
+    void threeSources() {
+        checkMerge(3);
+    }
+
+    @Test
+    void fiveSources() {
+        checkMerge(5);
+    }
+
+    @Test
+    void firstSourceWins() {
+        // The priority decides, not the timestamps
+        final Iterator<Cell> merged = new MergeIterator(
+                ImmutableList.of(
+                        ImmutableList.of(cell(1, 0, 1L)).iterator(),
+                        ImmutableList.of(cell(1, 1, 3L), cell(2, 1, 3L)).iterator(),
+                        ImmutableList.of(cell(1, 2, 2L), cell(2, 2, 2L)).iterator()),
+                true,
+                null,
+                null);
+        assertCell(1, 0, merged.next());
+        assertCell(2, 1, merged.next());
+        assertFalse(merged.hasNext());
+    }
+
+    @Test
+    void tombstonesSkipped() {
+        final LongAdder skipped = new LongAdder();
+        final Iterator<Cell> merged = new MergeIterator(sourcesWithTombstones(), true, skipped, null);
+        assertCell(2, 1, merged.next());
+        assertFalse(merged.hasNext());
+        assertEquals(2, skipped.sum());
+    }
+
+    @Test
+    void tombstonesKept() {
+        final Iterator<Cell> merged = new MergeIterator(sourcesWithTombstones(), false, null, null);
+        assertTrue(merged.next().getValue().isTombstone());
+        assertCell(2, 1, merged.next());
+        assertTrue(merged.next().getValue().isTombstone());
+        assertFalse(merged.hasNext());
+    }
+
+    @Test
+    void nextAfterEnd() {
+        final Iterator<Cell> merged = new MergeIterator(
+                ImmutableList.of(
+                        ImmutableList.of(cell(1, 0, 1L)).iterator(),
+                        ImmutableList.<Cell>of().iterator()),
+                true,
+                null,
+                null);
+        merged.next();
+        assertFalse(merged.hasNext());
+        assertThrows(NoSuchElementException.class, merged::next);
+        assertThrows(NoSuchElementException.class, merged::next);
+    }
+
+    /**
+     * Source {@code s} has every key divisible by {@code s + 1}, so the keys overlap in many sources.
+     */
+    private static void checkMerge(final int count) {
+        final List<Iterator<Cell>> sources = new ArrayList<>(count);
+        for (int source = 0; source < count; source++) {
+            final List<Cell> cells = new ArrayList<>();
+            for (int key = 0; key < KEYS; key += source + 1) {
+                cells.add(cell(key, source, 1L));
+            }
+            sources.add(cells.iterator());
+        }
+        final Iterator<Cell> merged = new MergeIterator(sources, true, null, null);
+        for (int key = 0; key < KEYS; key++) {
+            for (int source = 0; source < count; source++) {
+                if (key % (source + 1) == 0) {
+                    assertCell(key, source, merged.next());
+                    break;
+                }
+            }
+        }
+        assertFalse(merged.hasNext());
+    }
+
+    /**
+     * Key 1 is removed over an older value, key 2 is alive and key 3 has only a tombstone.
+     */
+    @NotNull
+    private static List<Iterator<Cell>> sourcesWithTombstones() {
+        return ImmutableList.of(
+                ImmutableList.of(new Cell(key(1), new Value(2L)), new Cell(key(3), new Value(2L))).iterator(),
+                ImmutableList.of(cell(1, 1, 1L), cell(2, 1, 1L)).iterator());
+    }
+
+    private static void assertCell(
+            final int key,
+            final int source,
+            @NotNull final Cell cell) {
+        assertEquals(key(key), cell.getKey());
+        assertEquals(source, cell.getValue().getData().getInt());
+    }
+
+    @NotNull
+    private static Cell cell(
+            final int key,
+            final int source,
+            final long timestamp) {
+        return new Cell(key(key), new Value(ByteBuffer.allocate(Integer.BYTES).putInt(0, source), timestamp));
+    }
+
+    @NotNull
+    private static ByteBuffer key(final int key) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(0, key);
+    }
+}
@@ -0,0 +1,71 @@
+package ru.mail.polis.stasmilke;
+
+import com.google.common.collect.ImmutableList;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Checks that {@link SSTable} reads back exactly the cells it has written.
+ */
+class SSTableTest {
+    private static final long BASE = 1_000_000L;
+
+    @Test
+    void timestamps(@TempDir File data) throws IOException {
+        // The first cell sets the base timestamp, the others are older and newer than it, some are removed
+        final List<Cell> cells = ImmutableList.of(
+                new Cell(key(0), new Value(key(100), BASE)),
+                new Cell(key(1), new Value(key(101), 1L)),
+                new Cell(key(2), new Value(BASE - 1L)),
+                new Cell(key(3), new Value(key(103), BASE + Integer.MAX_VALUE * 4L)),
+                new Cell(key(4), new Value(2L)),
+                new Cell(key(5), new Value(key(105), BASE - 64L)));
+        final File file = new File(data, "1.dat");
+        final Config config = Config.builder(Long.MAX_VALUE).blockSize(32).build();
+        SSTable.serialize(file, cells.iterator(), config);
+
+        final SSTable table = new SSTable(file, 1, 0, config);
+        try {
+            final Iterator<Cell> actual = table.iterator(ByteBuffer.allocate(0));
+            for (final Cell cell : cells) {
+                final Cell read = actual.next();
+                assertEquals(cell.getKey(), read.getKey());
+                assertValue(cell.getValue(), read.getValue());
+                final Value found = table.get(cell.getKey());
+                assertNotNull(found);
+                assertValue(cell.getValue(), found);
+            }
+            assertFalse(actual.hasNext());
+            assertEquals(2, table.getTombstones());
+            assertEquals(BASE - 1L, table.getNewestTombstone());
+        } finally {
+            table.close();
+        }
+    }
+
+    private static void assertValue(
+            @NotNull final Value expected,
+            @NotNull final Value actual) {
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.isTombstone(), actual.isTombstone());
+        if (!expected.isTombstone()) {
+            assertEquals(expected.getData(), actual.getData());
+        }
+    }
+
+    @NotNull
+    private static ByteBuffer key(final int key) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(0, key);
+    }
+}